@@ -0,0 +1,96 @@
+package smartsort.containers;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.bukkit.Material;
+import org.bukkit.inventory.Inventory;
+import org.bukkit.inventory.ItemStack;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Signature of a full double chest: the sorted material string the cache
+ * used to be keyed by against the 64-bit hash. Both include the
+ * getContents copy, as every chest open pays it. Add -prof gc to the
+ * arguments to compare allocation too.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ContainerSignatureBenchmark {
+
+    private Inventory chest;
+    private ContainerSignatureGenerator generator;
+
+    @Setup
+    public void setUp() {
+        DoubleChestFixture.startServer();
+        chest = DoubleChestFixture.inventory();
+        generator = new ContainerSignatureGenerator();
+    }
+
+    @TearDown
+    public void tearDown() {
+        DoubleChestFixture.stopServer();
+    }
+
+    @Benchmark
+    public String sortedString() {
+        return legacySignature(chest);
+    }
+
+    @Benchmark
+    public long hashed() {
+        return generator.createInventorySignature(chest);
+    }
+
+    /**
+     * The signature as ContainerSignatureGenerator built it before it was
+     * hashed
+     */
+    private static String legacySignature(Inventory inv) {
+        Map<Material, Integer> materialCounts = new HashMap<>();
+        for (ItemStack item : inv.getContents()) {
+            if (item != null && item.getType() != Material.AIR) {
+                materialCounts.merge(
+                    item.getType(),
+                    item.getAmount(),
+                    Integer::sum
+                );
+            }
+        }
+
+        StringBuilder signature = new StringBuilder();
+        materialCounts
+            .entrySet()
+            .stream()
+            .sorted(
+                Map.Entry.comparingByKey(Comparator.comparing(Material::name))
+            )
+            .forEach(entry ->
+                signature
+                    .append(entry.getValue())
+                    .append("x")
+                    .append(entry.getKey().name())
+                    .append(",")
+            );
+        if (signature.length() > 0) {
+            signature.setLength(signature.length() - 1);
+        }
+        return signature.toString();
+    }
+}
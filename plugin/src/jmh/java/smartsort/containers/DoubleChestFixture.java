@@ -0,0 +1,87 @@
+package smartsort.containers;
+
+import java.util.ArrayList;
+import java.util.List;
+import net.kyori.adventure.text.Component;
+import org.bukkit.Bukkit;
+import org.bukkit.Material;
+import org.bukkit.inventory.Inventory;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.inventory.meta.ItemMeta;
+import org.mockbukkit.mockbukkit.MockBukkit;
+
+/**
+ * A full double chest of mixed, partly stacked items for the benchmarks.
+ * Paper item stacks need a server, so a mock one is started first.
+ */
+final class DoubleChestFixture {
+
+    static final int SLOTS = 54;
+
+    private static final Material[] MATERIALS = {
+        Material.STONE,
+        Material.COBBLESTONE,
+        Material.DIRT,
+        Material.OAK_LOG,
+        Material.OAK_PLANKS,
+        Material.IRON_INGOT,
+        Material.GOLD_INGOT,
+        Material.DIAMOND,
+        Material.COAL,
+        Material.REDSTONE,
+        Material.TORCH,
+        Material.BREAD,
+        Material.WHEAT_SEEDS,
+        Material.STRING,
+        Material.BONE,
+        Material.ARROW,
+        Material.ENDER_PEARL,
+        Material.IRON_PICKAXE,
+    };
+
+    private DoubleChestFixture() {}
+
+    static void startServer() {
+        if (!MockBukkit.isMocked()) MockBukkit.mock();
+    }
+
+    static void stopServer() {
+        MockBukkit.unmock();
+    }
+
+    /**
+     * Three partial stacks of each material, spread over the chest; every
+     * ninth stack is renamed, so it only merges with its own kind
+     */
+    static List<ItemStack> items() {
+        List<ItemStack> items = new ArrayList<>(SLOTS);
+        for (int slot = 0; slot < SLOTS; slot++) {
+            Material material = MATERIALS[slot % MATERIALS.length];
+            int amount = 1 + (slot * 37) % material.getMaxStackSize();
+            ItemStack item = new ItemStack(material, amount);
+            if (slot % 9 == 4) {
+                ItemMeta meta = item.getItemMeta();
+                meta.displayName(Component.text("Stash " + slot / 9));
+                item.setItemMeta(meta);
+            }
+            items.add(item);
+        }
+        return items;
+    }
+
+    static Inventory inventory() {
+        Inventory inventory = Bukkit.createInventory(null, SLOTS);
+        List<ItemStack> items = items();
+        for (int slot = 0; slot < SLOTS; slot++) {
+            inventory.setItem(slot, items.get(slot));
+        }
+        return inventory;
+    }
+
+    /** Deep copy, for benchmarks whose baseline changes the items */
+    static List<ItemStack> copyOf(List<ItemStack> items) {
+        List<ItemStack> copy = new ArrayList<>(items.size());
+        for (ItemStack item : items) copy.add(item.clone());
+        return copy;
+    }
+}
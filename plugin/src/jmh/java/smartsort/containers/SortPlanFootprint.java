@@ -0,0 +1,77 @@
+package smartsort.containers;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.bukkit.Material;
+import org.bukkit.inventory.ItemStack;
+import org.openjdk.jol.info.GraphLayout;
+
+/**
+ * Heap retained by one plan cache entry for a full double chest: the list
+ * of cloned item stacks the cache used to hold against a {@link SortPlan}.
+ * Objects every stack of a material shares, such as the material and its
+ * item prototype, are not counted. Run with
+ * -Djmh.main=smartsort.containers.SortPlanFootprint.
+ */
+public final class SortPlanFootprint {
+
+    private static final int ENTRIES = 500;
+
+    private SortPlanFootprint() {}
+
+    public static void main(String[] args) {
+        DoubleChestFixture.startServer();
+        try {
+            List<ItemStack> sorted = DoubleChestFixture.items();
+            GraphLayout shared = sharedObjects();
+
+            List<List<ItemStack>> cloned = new ArrayList<>(ENTRIES);
+            List<SortPlan> plans = new ArrayList<>(ENTRIES);
+            for (int i = 0; i < ENTRIES; i++) {
+                List<ItemStack> clones = new ArrayList<>(sorted.size());
+                for (ItemStack item : sorted) clones.add(item.clone());
+                cloned.add(clones);
+                plans.add(SortPlan.of(sorted));
+            }
+
+            long clonedBytes = GraphLayout.parseInstance(cloned)
+                .subtract(shared)
+                .totalSize();
+            long planBytes = GraphLayout.parseInstance(plans)
+                .subtract(shared)
+                .totalSize();
+            print("Cloned ItemStack lists", clonedBytes);
+            print("SortPlans", planBytes);
+            System.out.printf(
+                "SortPlan.weight() of one entry: %d bytes%n",
+                plans.get(0).weight()
+            );
+        } finally {
+            DoubleChestFixture.stopServer();
+        }
+    }
+
+    /**
+     * Everything reachable from the materials and one fresh stack of each,
+     * which the cache entries point at but don't own
+     */
+    private static GraphLayout sharedObjects() {
+        List<Object> roots = new ArrayList<>();
+        for (Material material : Material.values()) {
+            roots.add(material);
+            if (material.isLegacy() || material.isAir()) continue;
+            if (material.isItem()) roots.add(new ItemStack(material));
+        }
+        return GraphLayout.parseInstance(roots.toArray());
+    }
+
+    private static void print(String label, long bytes) {
+        System.out.printf(
+            "%s: %d bytes for %d double chests, %d per entry%n",
+            label,
+            bytes,
+            ENTRIES,
+            bytes / ENTRIES
+        );
+    }
+}
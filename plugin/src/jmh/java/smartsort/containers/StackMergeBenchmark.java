@@ -0,0 +1,105 @@
+package smartsort.containers;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import org.bukkit.Material;
+import org.bukkit.inventory.ItemStack;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Merging a full double chest's sorted items into stacks: the
+ * material:metaHash map the applier used to build against mergeStacks.
+ * The old path changes the items it merges into, so both get a fresh copy
+ * of the chest before every call. Add -prof gc to the arguments to compare
+ * allocation too.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StackMergeBenchmark {
+
+    private List<ItemStack> chest;
+    private List<ItemStack> sorted;
+    private ContainerSortApplier applier;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        DoubleChestFixture.startServer();
+        chest = DoubleChestFixture.items();
+        applier = new ContainerSortApplier(null, null);
+    }
+
+    @Setup(Level.Invocation)
+    public void copyChest() {
+        sorted = DoubleChestFixture.copyOf(chest);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        DoubleChestFixture.stopServer();
+    }
+
+    @Benchmark
+    public Map<String, ItemStack> keyedByMetaHash() {
+        return legacyMerge(sorted);
+    }
+
+    @Benchmark
+    public int groupedBySimilar() {
+        return applier.mergeStacks(sorted).count;
+    }
+
+    /**
+     * The stacking loop of applySortedItems before mergeStacks, without
+     * placing the stacks
+     */
+    private static Map<String, ItemStack> legacyMerge(List<ItemStack> sorted) {
+        Map<String, ItemStack> stackMap = new LinkedHashMap<>();
+        for (ItemStack item : sorted) {
+            if (item == null || item.getType() == Material.AIR) continue;
+
+            String key = item.getType().toString();
+            if (item.hasItemMeta()) key += ":" + item.getItemMeta().hashCode();
+
+            if (stackMap.containsKey(key)) {
+                ItemStack existing = stackMap.get(key);
+                int maxSize = existing.getType().getMaxStackSize();
+
+                if (existing.getAmount() < maxSize) {
+                    int canAdd = maxSize - existing.getAmount();
+                    int toAdd = Math.min(canAdd, item.getAmount());
+
+                    existing.setAmount(existing.getAmount() + toAdd);
+
+                    if (toAdd < item.getAmount()) {
+                        ItemStack remainder = item.clone();
+                        remainder.setAmount(item.getAmount() - toAdd);
+                        stackMap.put(key + ":" + UUID.randomUUID(), remainder);
+                    }
+                } else {
+                    stackMap.put(key + ":" + UUID.randomUUID(), item);
+                }
+            } else {
+                stackMap.put(key, item);
+            }
+        }
+        return stackMap;
+    }
+}
@@ -1,19 +1,23 @@
 package smartsort;
 
-import java.util.List;
-import org.bukkit.inventory.ItemStack;
 import org.bukkit.plugin.java.JavaPlugin;
 import smartsort.api.openai.OpenAIResponseParser;
 import smartsort.api.openai.OpenAIService;
 import smartsort.commands.*;
 import smartsort.containers.ContainerExtractor;
+import smartsort.containers.ContainerSignatureTracker;
 import smartsort.containers.ContainerSortApplier;
 import smartsort.containers.ContainerSorter;
+import smartsort.containers.SimilarPlanIndex;
+import smartsort.containers.SortPlan;
 import smartsort.players.PlayerInventorySorter;
 import smartsort.players.inventory.PlayerInventoryApplier;
 import smartsort.players.inventory.PlayerInventoryExtractor;
 import smartsort.players.inventory.PlayerInventoryResponseParser;
 import smartsort.players.ui.SortButtonManager;
+import smartsort.sorting.LocalSortPolicy;
+import smartsort.sorting.MaterialRankLearner;
+import smartsort.sorting.SortEngine;
 import smartsort.util.AsyncTaskManager;
 import smartsort.util.DebugLogger;
 import smartsort.util.InventoryChangeTracker;
@@ -32,8 +36,9 @@ public final class SmartSortPlugin extends JavaPlugin {
     private DebugLogger debug;
     private PlayerPreferenceManager preferenceManager;
     private InventoryChangeTracker changeTracker;
-    private VersionedCache<String, List<ItemStack>> versionedCache;
+    private VersionedCache<Long, SortPlan> versionedCache;
     private AsyncTaskManager asyncTaskManager;
+    private MaterialRankLearner rankLearner;
 
     public static SmartSortPlugin get() {
         return instance;
@@ -53,7 +58,11 @@ public final class SmartSortPlugin extends JavaPlugin {
         debug.initialize(); // Start message queue processing
         services.register(DebugLogger.class, debug);
 
-        aiService = new OpenAIService(this, debug);
+        // Category table for local sorting, built once
+        SortEngine sortEngine = new SortEngine();
+        services.register(SortEngine.class, sortEngine);
+
+        aiService = new OpenAIService(this, debug, sortEngine);
         services.register(OpenAIService.class, aiService);
 
         tickSoundManager = new TickSoundManager(this);
@@ -71,7 +80,9 @@ public final class SmartSortPlugin extends JavaPlugin {
 
         // Initialize versioned cache
         versionedCache = new VersionedCache<>(
-            getConfig().getInt("performance.cache_size", 500),
+            getConfig().getLong("performance.cache_max_kb", 512) * 1024,
+            // Boxed key plus the plan's arrays
+            (signature, plan) -> 16 + plan.weight(),
             debug
         );
         services.register(VersionedCache.class, versionedCache);
@@ -91,6 +102,22 @@ public final class SmartSortPlugin extends JavaPlugin {
             debug,
             tickSoundManager
         );
+        ContainerSignatureTracker signatureTracker =
+            new ContainerSignatureTracker(this);
+        getServer().getPluginManager().registerEvents(signatureTracker, this);
+
+        // Learns the AI's material order so later sorts can skip it
+        rankLearner = new MaterialRankLearner(
+            this,
+            debug,
+            sortEngine,
+            getConfig().getInt("local_sort.learn_min_observations", 5),
+            getConfig().getInt("local_sort.learn_min_agreement_percent", 80)
+        );
+        rankLearner.start(
+            getConfig().getInt("local_sort.learn_save_interval_minutes", 5)
+        );
+        services.register(MaterialRankLearner.class, rankLearner);
 
         // Create inventory sorter with new dependencies
         sorter = new ContainerSorter(
@@ -101,7 +128,22 @@ public final class SmartSortPlugin extends JavaPlugin {
             changeTracker,
             versionedCache,
             containerExtractor,
-            containerSortApplier
+            containerSortApplier,
+            LocalSortPolicy.fromConfig(
+                sortEngine,
+                rankLearner,
+                getConfig().getConfigurationSection("local_sort")
+            ),
+            rankLearner,
+            new SimilarPlanIndex(
+                sortEngine,
+                getConfig().getInt("performance.near_match.max_entries", 2000),
+                getConfig()
+                    .getDouble("performance.near_match.min_similarity", 0.75),
+                getConfig()
+                    .getInt("performance.near_match.max_new_materials", 2)
+            ),
+            signatureTracker
         );
         services.register(ContainerSorter.class, sorter);
 
@@ -165,7 +207,9 @@ public final class SmartSortPlugin extends JavaPlugin {
         tickSoundManager.shutdown();
         aiService.shutdown();
         asyncTaskManager.shutdown(); // Shutdown async task manager
+        if (sorter != null) sorter.shutdown(); // Flush stored sort plans
         versionedCache.shutdown(); // Shutdown versioned cache
+        if (rankLearner != null) rankLearner.shutdown();
 
         if (playerInventoryService != null) {
             playerInventoryService.shutdown();
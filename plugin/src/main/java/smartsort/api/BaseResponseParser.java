@@ -10,6 +10,7 @@ import java.util.Queue;
 import org.bukkit.Material;
 import org.bukkit.inventory.ItemStack;
 
+import smartsort.api.pipeline.StreamListener;
 import smartsort.util.DebugLogger;
 
 /**
@@ -18,6 +19,10 @@ import smartsort.util.DebugLogger;
  */
 public abstract class BaseResponseParser {
 
+    // Replies naming more materials than this that aren't in the inventory
+    // are given up on while they stream in
+    protected static final int MAX_UNKNOWN_MATERIALS = 3;
+
     protected final DebugLogger debug;
 
     public BaseResponseParser(DebugLogger debug) {
@@ -151,4 +156,65 @@ public abstract class BaseResponseParser {
         }
         return counts;
     }
-}
\ No newline at end of file
+
+    /**
+     * Incremental parse of one reply, fed line by line while it streams in.
+     * Lines arrive on an HTTP thread; {@link #finish} is called on the main
+     * thread once the reply has been delivered.
+     */
+    public abstract class StreamSession<T> implements StreamListener {
+
+        // Length and String.hashCode of the lines seen, joined by '\n'
+        private int seenLength = -1;
+        private int seenHash;
+
+        @Override
+        public final synchronized void onStart() {
+            seenLength = -1;
+            seenHash = 0;
+            reset();
+        }
+
+        @Override
+        public final synchronized boolean onLine(String line) {
+            if (seenLength >= 0) {
+                seenHash = 31 * seenHash + '\n';
+                seenLength++;
+            } else {
+                seenLength = 0;
+            }
+            for (int i = 0; i < line.length(); i++) {
+                seenHash = 31 * seenHash + line.charAt(i);
+            }
+            seenLength += line.length();
+            return accept(line);
+        }
+
+        /**
+         * Build the result. Reuses the streamed lines if they are exactly
+         * this reply, otherwise parses the reply from scratch.
+         * @param reply The complete reply text
+         */
+        public final synchronized T finish(String reply) {
+            boolean streamed =
+                seenLength == reply.length() && seenHash == reply.hashCode();
+            if (!streamed) {
+                reset();
+                for (String line : reply.split("\n")) accept(line);
+            }
+            return build();
+        }
+
+        /** Forget everything parsed so far */
+        protected abstract void reset();
+
+        /**
+         * Parse one line
+         * @return false if the reply is already known to be unusable
+         */
+        protected abstract boolean accept(String line);
+
+        /** Build the result from the lines parsed so far */
+        protected abstract T build();
+    }
+}
@@ -0,0 +1,199 @@
+package smartsort.api.backend;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.bukkit.Material;
+import smartsort.api.pipeline.AiRequest;
+import smartsort.api.pipeline.RawReply;
+import smartsort.api.pipeline.ReplyRejectedException;
+import smartsort.api.pipeline.StreamListener;
+import smartsort.sorting.SortEngine;
+
+/**
+ * Rule-based backend that answers in-process and instantly, used as the
+ * fallback while the real backend is unavailable. Replies use the same
+ * format as the AI's and depend only on the prompt: containers are sorted
+ * by the {@link SortEngine}; player inventories get armor in the armor
+ * slots and everything else in order from the hotbar on; test chests get
+ * items picked by the prompt's hash.
+ */
+public class LocalSortBackend implements SortBackend {
+
+    // "[SMARTSORT v4.5] Inventory: 12xSTONE, 3xDIRT" or "[C2] Inventory: ..."
+    private static final Pattern INVENTORY_LINE = Pattern.compile(
+        "(?m)^(\\[C\\d+])?.*?Inventory: (.*)$"
+    );
+    private static final String[][] ARMOR_SLOTS = {
+        { "_HELMET", "HELMET" },
+        { "_CHESTPLATE", "CHESTPLATE" },
+        { "_LEGGINGS", "LEGGINGS" },
+        { "_BOOTS", "BOOTS" },
+        { "SHIELD", "OFFHAND" },
+    };
+
+    private final SortEngine engine;
+
+    public LocalSortBackend(SortEngine engine) {
+        this.engine = engine;
+    }
+
+    @Override
+    public String getName() {
+        return "local";
+    }
+
+    @Override
+    public boolean isAvailable() {
+        return true;
+    }
+
+    @Override
+    public CompletableFuture<RawReply> send(AiRequest request, String model) {
+        try {
+            return CompletableFuture.completedFuture(answer(request));
+        } catch (CompletionException e) {
+            return CompletableFuture.failedFuture(e.getCause());
+        }
+    }
+
+    @Override
+    public String decode(RawReply reply) {
+        return reply.getStreamedContent() != null
+            ? reply.getStreamedContent()
+            : reply.getBody();
+    }
+
+    /**
+     * Work out the reply to a request and stream it to its listener
+     */
+    protected RawReply answer(AiRequest request) {
+        String content = switch (request.getKind()) {
+            case CONTAINER_SORT -> sortContainers(request.getPrompt());
+            case PLAYER_SORT -> sortPlayer(request.getPrompt());
+            case TEST_CHEST -> fillTestChest(request.getPrompt());
+        };
+        stream(request.getStreamListener(), content);
+        return new RawReply(200, "", content);
+    }
+
+    private static void stream(StreamListener listener, String content) {
+        if (listener == null) return;
+        listener.onStart();
+        for (String line : content.split("\n")) {
+            if (!listener.onLine(line)) {
+                throw new CompletionException(new ReplyRejectedException());
+            }
+        }
+    }
+
+    private String sortContainers(String prompt) {
+        StringBuilder sb = new StringBuilder();
+        Matcher m = INVENTORY_LINE.matcher(prompt);
+        while (m.find()) {
+            if (m.group(1) != null) sb.append(m.group(1)).append('\n');
+            List<Map.Entry<String, Integer>> items = parseInventory(
+                m.group(2)
+            );
+            items.sort(Comparator.comparingInt(e -> rankOf(e.getKey())));
+            for (Map.Entry<String, Integer> item : items) {
+                sb
+                    .append(item.getValue())
+                    .append('x')
+                    .append(item.getKey())
+                    .append('\n');
+            }
+        }
+        return sb.toString().trim();
+    }
+
+    private static String sortPlayer(String prompt) {
+        Matcher m = INVENTORY_LINE.matcher(prompt);
+        if (!m.find()) return "";
+
+        StringBuilder sb = new StringBuilder();
+        List<String> usedArmor = new ArrayList<>();
+        int nextSlot = 0;
+        for (Map.Entry<String, Integer> item : parseInventory(m.group(2))) {
+            String slot = null;
+            for (String[] armor : ARMOR_SLOTS) {
+                if (
+                    item.getKey().endsWith(armor[0]) &&
+                    !usedArmor.contains(armor[1])
+                ) {
+                    slot = armor[1];
+                    usedArmor.add(slot);
+                    break;
+                }
+            }
+            if (slot == null) {
+                if (nextSlot >= 36) continue;
+                slot = nextSlot < 9
+                    ? "HOTBAR_" + nextSlot
+                    : "INVENTORY_" + (nextSlot - 9);
+                nextSlot++;
+            }
+            sb
+                .append(item.getValue())
+                .append('x')
+                .append(item.getKey())
+                .append(':')
+                .append(slot)
+                .append('\n');
+        }
+        return sb.toString().trim();
+    }
+
+    private static String fillTestChest(String prompt) {
+        List<Material> candidates = new ArrayList<>();
+        for (Material material : Material.values()) {
+            if (material.isItem() && !material.isAir()) {
+                candidates.add(material);
+            }
+        }
+        if (candidates.isEmpty()) return "";
+
+        Random random = new Random(prompt.hashCode());
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 14; i++) {
+            Material material = candidates.get(
+                random.nextInt(candidates.size())
+            );
+            int amount = 1 + random.nextInt(material.getMaxStackSize());
+            sb.append(amount).append('x').append(material).append('\n');
+        }
+        return sb.toString().trim();
+    }
+
+    private static List<Map.Entry<String, Integer>> parseInventory(
+        String signature
+    ) {
+        Map<String, Integer> items = new LinkedHashMap<>();
+        for (String part : signature.split(",\\s*")) {
+            int x = part.indexOf('x');
+            if (x <= 0) continue;
+            try {
+                items.merge(
+                    part.substring(x + 1).trim(),
+                    Integer.parseInt(part.substring(0, x).trim()),
+                    Integer::sum
+                );
+            } catch (NumberFormatException e) {
+                // Not an item entry
+            }
+        }
+        return new ArrayList<>(items.entrySet());
+    }
+
+    private int rankOf(String name) {
+        Material material = Material.matchMaterial(name);
+        return material != null ? engine.rankOf(material) : Integer.MAX_VALUE;
+    }
+}
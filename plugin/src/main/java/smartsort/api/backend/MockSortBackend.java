@@ -0,0 +1,40 @@
+package smartsort.api.backend;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import smartsort.api.pipeline.AiRequest;
+import smartsort.api.pipeline.RawReply;
+import smartsort.sorting.SortEngine;
+
+/**
+ * The local rule-based backend with a simulated reply time, for
+ * load-testing the whole sorting pipeline offline without quota.
+ */
+public class MockSortBackend extends LocalSortBackend {
+
+    private final long latencyMillis;
+
+    /**
+     * @param latencyMillis Simulated time to answer each request
+     */
+    public MockSortBackend(SortEngine engine, long latencyMillis) {
+        super(engine);
+        this.latencyMillis = Math.max(0, latencyMillis);
+    }
+
+    @Override
+    public String getName() {
+        return "mock";
+    }
+
+    @Override
+    public CompletableFuture<RawReply> send(AiRequest request, String model) {
+        return CompletableFuture.supplyAsync(
+            () -> answer(request),
+            CompletableFuture.delayedExecutor(
+                latencyMillis,
+                TimeUnit.MILLISECONDS
+            )
+        );
+    }
+}
@@ -0,0 +1,55 @@
+package smartsort.api.backend;
+
+import java.util.concurrent.CompletableFuture;
+import smartsort.api.pipeline.AiRequest;
+import smartsort.api.pipeline.RawReply;
+
+/**
+ * Where AI requests are answered. Queueing, rate limiting, retries and
+ * delivery are handled by the request pipeline; a backend only sends a
+ * single attempt and turns its reply into text.
+ */
+public interface SortBackend {
+    /**
+     * @return Short name for logs and stats
+     */
+    String getName();
+
+    /**
+     * @return false if requests can't be sent at all, e.g. no API key is set
+     */
+    boolean isAvailable();
+
+    /**
+     * Send one attempt of a request
+     * @param request The request
+     * @param model Model to ask
+     * @return Completes with the undecoded reply. Cancelling it should abort
+     * the attempt.
+     */
+    CompletableFuture<RawReply> send(AiRequest request, String model);
+
+    /**
+     * Extract the reply text. Runs off the main thread.
+     * @return The reply text, or "" if the reply is not usable
+     */
+    String decode(RawReply reply);
+
+    /**
+     * Open or refresh a connection ahead of the next request, so players
+     * don't wait for DNS and TLS on their sort. Must not block.
+     */
+    default void warmUp() {}
+
+    /**
+     * @return A line of connection statistics, or null if not applicable
+     */
+    default String getConnectionStats() {
+        return null;
+    }
+
+    /**
+     * Release threads and connections
+     */
+    default void shutdown() {}
+}
@@ -0,0 +1,98 @@
+package smartsort.api.openai;
+
+import java.io.IOException;
+import okio.BufferedSource;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import smartsort.api.pipeline.ReplyRejectedException;
+import smartsort.api.pipeline.StreamListener;
+
+/**
+ * Reads a streamed chat completion ("stream": true) from its server-sent
+ * events and hands each complete line of message content to a
+ * {@link StreamListener} as soon as it has arrived.
+ */
+public class ChatCompletionStreamReader {
+
+    private final StreamListener listener;
+    private final StringBuilder content = new StringBuilder();
+    private int lineStart;
+
+    /**
+     * @param listener Receives content lines, or null to only collect them
+     */
+    public ChatCompletionStreamReader(StreamListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Read events until the stream ends
+     * @return The full message content
+     * @throws IOException If the connection fails, the stream reports an
+     * error, or {@link ReplyRejectedException} if the listener rejects a
+     * line
+     */
+    public String read(BufferedSource source) throws IOException {
+        if (listener != null) listener.onStart();
+
+        StringBuilder data = new StringBuilder();
+        String line;
+        while ((line = source.readUtf8Line()) != null) {
+            if (line.isEmpty()) {
+                // A blank line ends the event
+                if (data.length() == 0) continue;
+                if (!onEvent(data.toString())) break;
+                data.setLength(0);
+            } else if (line.startsWith("data:")) {
+                if (data.length() > 0) data.append('\n');
+                int from = line.startsWith("data: ") ? 6 : 5;
+                data.append(line, from, line.length());
+            }
+            // Comments and other fields such as "event:" are not used
+        }
+        if (data.length() > 0) onEvent(data.toString());
+
+        // The last line has no trailing newline
+        if (lineStart < content.length()) {
+            emit(content.substring(lineStart));
+            lineStart = content.length();
+        }
+        return content.toString();
+    }
+
+    /**
+     * @return false once the stream is done
+     */
+    private boolean onEvent(String data) throws IOException {
+        if (data.equals("[DONE]")) return false;
+
+        JSONObject event = new JSONObject(data);
+        JSONObject error = event.optJSONObject("error");
+        if (error != null) {
+            throw new IOException(
+                "Stream error: " + error.optString("message", data)
+            );
+        }
+
+        JSONArray choices = event.optJSONArray("choices");
+        if (choices == null || choices.isEmpty()) return true;
+        JSONObject delta = choices.getJSONObject(0).optJSONObject("delta");
+        if (delta == null) return true;
+        String piece = delta.optString("content", "");
+        if (piece.isEmpty()) return true;
+
+        content.append(piece);
+        int newline;
+        while ((newline = content.indexOf("\n", lineStart)) >= 0) {
+            emit(content.substring(lineStart, newline));
+            lineStart = newline + 1;
+        }
+        return true;
+    }
+
+    private void emit(String line) throws IOException {
+        if (listener != null && !listener.onLine(line)) {
+            throw new ReplyRejectedException();
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package smartsort.api.openai;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import okhttp3.Call;
+import okhttp3.Connection;
+import okhttp3.EventListener;
+import okhttp3.Protocol;
+
+/**
+ * Counts how many HTTP calls reused a pooled connection versus opened a new
+ * one, and how long new connections took including DNS and TLS.
+ * Safe to update from any thread.
+ */
+class ConnectionMetrics implements EventListener.Factory {
+
+    private final LongAdder acquired = new LongAdder();
+    private final LongAdder opened = new LongAdder();
+    private final LongAdder openedHttp2 = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder connectNanos = new LongAdder();
+
+    @Override
+    public EventListener create(Call call) {
+        return new CallListener();
+    }
+
+    /**
+     * @param idle Idle connections currently pooled
+     * @param pooled All connections currently pooled
+     */
+    String getStats(int idle, int pooled) {
+        long acquiredCount = acquired.sum();
+        long openedCount = opened.sum();
+        long reused = Math.max(0, acquiredCount - openedCount);
+        return (
+            "Connection Stats: Reused=" +
+            reused +
+            ", Opened=" +
+            openedCount +
+            " (HTTP/2=" +
+            openedHttp2.sum() +
+            "), Failed=" +
+            failed.sum() +
+            ", Reuse=" +
+            (acquiredCount == 0 ? 0 : reused * 100 / acquiredCount) +
+            "% | avg connect=" +
+            TimeUnit.NANOSECONDS.toMillis(
+                connectNanos.sum() / Math.max(1, openedCount)
+            ) +
+            "ms | pool=" +
+            idle +
+            " idle/" +
+            pooled
+        );
+    }
+
+    /** Per-call listener, so connect timings don't mix between calls */
+    private class CallListener extends EventListener {
+
+        private long dnsStartedAt;
+
+        @Override
+        public void dnsStart(Call call, String domainName) {
+            dnsStartedAt = System.nanoTime();
+        }
+
+        @Override
+        public void connectStart(
+            Call call,
+            InetSocketAddress address,
+            Proxy proxy
+        ) {
+            // A cached address skips the DNS lookup
+            if (dnsStartedAt == 0) dnsStartedAt = System.nanoTime();
+        }
+
+        @Override
+        public void connectEnd(
+            Call call,
+            InetSocketAddress address,
+            Proxy proxy,
+            Protocol protocol
+        ) {
+            opened.increment();
+            if (protocol == Protocol.HTTP_2) openedHttp2.increment();
+            connectNanos.add(System.nanoTime() - dnsStartedAt);
+            dnsStartedAt = 0;
+        }
+
+        @Override
+        public void connectFailed(
+            Call call,
+            InetSocketAddress address,
+            Proxy proxy,
+            Protocol protocol,
+            IOException e
+        ) {
+            failed.increment();
+            dnsStartedAt = 0;
+        }
+
+        @Override
+        public void connectionAcquired(Call call, Connection connection) {
+            acquired.increment();
+        }
+    }
+}
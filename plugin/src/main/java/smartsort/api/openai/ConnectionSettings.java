@@ -0,0 +1,85 @@
+package smartsort.api.openai;
+
+import org.bukkit.configuration.ConfigurationSection;
+
+/**
+ * Connection pool, dispatcher and keep-alive settings for the HTTP client
+ * of an OpenAI-compatible backend.
+ */
+public class ConnectionSettings {
+
+    private final int maxRequestsPerHost;
+    private final int maxIdleConnections;
+    private final long keepAliveSeconds;
+    private final long pingIntervalSeconds;
+    private final long warmIntervalSeconds;
+
+    /**
+     * @param maxRequestsPerHost Concurrent calls allowed to the API host
+     * @param maxIdleConnections Idle connections kept in the pool
+     * @param keepAliveSeconds How long an idle connection stays pooled
+     * @param pingIntervalSeconds HTTP/2 ping interval, 0 to disable
+     * @param warmIntervalSeconds How often to refresh an idle connection
+     * while players are online, 0 to disable
+     */
+    public ConnectionSettings(
+        int maxRequestsPerHost,
+        int maxIdleConnections,
+        long keepAliveSeconds,
+        long pingIntervalSeconds,
+        long warmIntervalSeconds
+    ) {
+        this.maxRequestsPerHost = Math.max(1, maxRequestsPerHost);
+        this.maxIdleConnections = Math.max(1, maxIdleConnections);
+        this.keepAliveSeconds = Math.max(1, keepAliveSeconds);
+        this.pingIntervalSeconds = Math.max(0, pingIntervalSeconds);
+        this.warmIntervalSeconds = Math.max(0, warmIntervalSeconds);
+    }
+
+    /**
+     * Reads settings from a config section, falling back to the defaults
+     * for missing keys or a missing section
+     */
+    public static ConnectionSettings fromConfig(
+        ConfigurationSection section,
+        ConnectionSettings defaults
+    ) {
+        if (section == null) return defaults;
+        return new ConnectionSettings(
+            section.getInt(
+                "max_requests_per_host",
+                defaults.maxRequestsPerHost
+            ),
+            section.getInt("max_idle_connections", defaults.maxIdleConnections),
+            section.getLong("keep_alive_seconds", defaults.keepAliveSeconds),
+            section.getLong(
+                "ping_interval_seconds",
+                defaults.pingIntervalSeconds
+            ),
+            section.getLong(
+                "warm_interval_seconds",
+                defaults.warmIntervalSeconds
+            )
+        );
+    }
+
+    public int getMaxRequestsPerHost() {
+        return maxRequestsPerHost;
+    }
+
+    public int getMaxIdleConnections() {
+        return maxIdleConnections;
+    }
+
+    public long getKeepAliveSeconds() {
+        return keepAliveSeconds;
+    }
+
+    public long getPingIntervalSeconds() {
+        return pingIntervalSeconds;
+    }
+
+    public long getWarmIntervalSeconds() {
+        return warmIntervalSeconds;
+    }
+}
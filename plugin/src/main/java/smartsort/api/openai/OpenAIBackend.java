@@ -0,0 +1,40 @@
+package smartsort.api.openai;
+
+import smartsort.util.DebugLogger;
+
+/**
+ * Backend for the hosted OpenAI API. Needs a real API key.
+ */
+public class OpenAIBackend extends OpenAICompatibleBackend {
+
+    public static final String BASE_URL = "https://api.openai.com/v1";
+
+    public OpenAIBackend(
+        DebugLogger debug,
+        String apiKey,
+        boolean streaming,
+        ConnectionSettings connections,
+        OpenAIRateLimitFeedback rateLimitFeedback,
+        Runnable onRateRaised
+    ) {
+        super(
+            debug,
+            BASE_URL,
+            apiKey,
+            streaming,
+            connections,
+            rateLimitFeedback,
+            onRateRaised
+        );
+    }
+
+    @Override
+    public String getName() {
+        return "openai";
+    }
+
+    @Override
+    public boolean isAvailable() {
+        return !apiKey.isEmpty() && !apiKey.equals("your-api-key-here");
+    }
+}
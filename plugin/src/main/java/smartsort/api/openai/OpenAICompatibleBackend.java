@@ -0,0 +1,267 @@
+package smartsort.api.openai;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import okhttp3.*;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import smartsort.api.backend.SortBackend;
+import smartsort.api.pipeline.AiRequest;
+import smartsort.api.pipeline.RawReply;
+import smartsort.util.DebugLogger;
+
+/**
+ * Backend for any server that speaks the OpenAI chat completions API,
+ * e.g. a self-hosted model on the LAN. Requests go to
+ * {baseUrl}/chat/completions; the API key is optional.
+ */
+public class OpenAICompatibleBackend implements SortBackend {
+
+    protected final OkHttpClient http;
+    protected final DebugLogger debug;
+    protected final String apiKey;
+    private final String completionsUrl;
+    private final String modelsUrl;
+    private final ConnectionSettings connections;
+    private final ConnectionMetrics connectionMetrics = new ConnectionMetrics();
+    private volatile long lastCallAt = System.nanoTime();
+    private final boolean streaming;
+    private final OpenAIRateLimitFeedback rateLimitFeedback;
+    private final Runnable onRateRaised;
+
+    /**
+     * @param debug Debug logger
+     * @param baseUrl API root such as "http://192.168.1.5:8000/v1"
+     * @param apiKey Bearer token, or "" to send none
+     * @param streaming Whether to ask for streamed replies
+     * @param connections Pool, dispatcher and keep-alive settings
+     * @param rateLimitFeedback Applies x-ratelimit-* reply headers
+     * @param onRateRaised Called when the feedback raised the request rate
+     */
+    public OpenAICompatibleBackend(
+        DebugLogger debug,
+        String baseUrl,
+        String apiKey,
+        boolean streaming,
+        ConnectionSettings connections,
+        OpenAIRateLimitFeedback rateLimitFeedback,
+        Runnable onRateRaised
+    ) {
+        this.debug = debug;
+        this.apiKey = apiKey == null ? "" : apiKey;
+        String root = baseUrl.replaceAll("/+$", "");
+        this.completionsUrl = root + "/chat/completions";
+        this.modelsUrl = root + "/models";
+        this.connections = connections;
+
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequestsPerHost(connections.getMaxRequestsPerHost());
+        this.http = new OkHttpClient.Builder()
+            .connectTimeout(10, TimeUnit.SECONDS)
+            .readTimeout(45, TimeUnit.SECONDS) // Increased timeout
+            .dispatcher(dispatcher)
+            .connectionPool(
+                new ConnectionPool(
+                    connections.getMaxIdleConnections(),
+                    connections.getKeepAliveSeconds(),
+                    TimeUnit.SECONDS
+                )
+            )
+            // Detects dead HTTP/2 connections before a sort tries to use one
+            .pingInterval(
+                connections.getPingIntervalSeconds(),
+                TimeUnit.SECONDS
+            )
+            .eventListenerFactory(connectionMetrics)
+            .build();
+        this.streaming = streaming;
+        this.rateLimitFeedback = rateLimitFeedback;
+        this.onRateRaised = onRateRaised;
+    }
+
+    @Override
+    public String getName() {
+        return "compatible (" + completionsUrl + ")";
+    }
+
+    @Override
+    public boolean isAvailable() {
+        return true;
+    }
+
+    @Override
+    public CompletableFuture<RawReply> send(AiRequest request, String model) {
+        JSONObject json = new JSONObject()
+            .put("model", model)
+            .put("temperature", 0.3)
+            .put("stream", streaming)
+            .put(
+                "messages",
+                List.of(
+                    new JSONObject()
+                        .put("role", "user")
+                        .put("content", request.getPrompt())
+                )
+            );
+
+        RequestBody body = RequestBody.create(
+            json.toString(),
+            MediaType.parse("application/json")
+        );
+        Request.Builder httpRequest = new Request.Builder()
+            .url(completionsUrl)
+            .post(body);
+        authorize(httpRequest);
+        lastCallAt = System.nanoTime();
+
+        CompletableFuture<RawReply> reply = new CompletableFuture<>();
+        Call call = http.newCall(httpRequest.build());
+        // Cancelling the future aborts the HTTP call
+        reply.whenComplete((raw, error) -> {
+            if (reply.isCancelled()) call.cancel();
+        });
+        call.enqueue(
+            new Callback() {
+                @Override
+                public void onFailure(Call call, IOException e) {
+                    reply.completeExceptionally(e);
+                }
+
+                @Override
+                public void onResponse(Call call, Response rsp) {
+                    try (rsp) {
+                        debug.console("[AI] Response code: " + rsp.code());
+                        if (
+                            rateLimitFeedback.apply(rsp.code(), rsp.headers())
+                        ) {
+                            onRateRaised.run();
+                        }
+                        if (rsp.code() == 200 && isEventStream(rsp)) {
+                            String content = new ChatCompletionStreamReader(
+                                request.getStreamListener()
+                            ).read(rsp.body().source());
+                            reply.complete(new RawReply(200, "", content));
+                            return;
+                        }
+                        reply.complete(
+                            new RawReply(rsp.code(), rsp.body().string())
+                        );
+                    } catch (Exception e) {
+                        reply.completeExceptionally(e);
+                    }
+                }
+            }
+        );
+        return reply;
+    }
+
+    /**
+     * Extracts choices[0].message.content from a chat completion body.
+     * Streamed replies arrive with their content already assembled.
+     * Runs on the OkHttp callback thread, never on the server tick thread.
+     * @return the message content, or "" if the body is not a usable reply
+     */
+    @Override
+    public String decode(RawReply reply) {
+        if (reply.getStreamedContent() != null) {
+            return reply.getStreamedContent();
+        }
+
+        String responseBody = reply.getBody();
+        if (reply.getCode() != 200) {
+            debug.console("[AI] Error response: " + responseBody);
+            return "";
+        }
+
+        try {
+            JSONObject json = new JSONObject(responseBody);
+            JSONArray choices = json.optJSONArray("choices");
+            if (choices == null || choices.isEmpty()) {
+                debug.console("[AI] Invalid response format: " + responseBody);
+                return "";
+            }
+
+            return choices
+                .getJSONObject(0)
+                .getJSONObject("message")
+                .getString("content");
+        } catch (Exception ex) {
+            debug.console("[AI] Response parsing error: " + ex.getMessage());
+            return "";
+        }
+    }
+
+    /**
+     * Opens a connection to the API host, or keeps the pooled one from
+     * going idle, with a cheap GET of the model list. Skipped if a call was
+     * made within the warm interval, since that already did the same.
+     */
+    @Override
+    public void warmUp() {
+        long idleNanos = System.nanoTime() - lastCallAt;
+        if (
+            http.connectionPool().connectionCount() > 0 &&
+            idleNanos <
+            TimeUnit.SECONDS.toNanos(connections.getWarmIntervalSeconds())
+        ) {
+            return;
+        }
+        lastCallAt = System.nanoTime();
+
+        Request.Builder ping = new Request.Builder().url(modelsUrl).get();
+        authorize(ping);
+        long started = System.nanoTime();
+        http
+            .newCall(ping.build())
+            .enqueue(
+                new Callback() {
+                    @Override
+                    public void onFailure(Call call, IOException e) {
+                        debug.console("[AI] Warm-up failed: " + e.getMessage());
+                    }
+
+                    @Override
+                    public void onResponse(Call call, Response rsp) {
+                        // Any status means the connection is up
+                        rsp.close();
+                        debug.console(
+                            "[AI] Connection warm (" +
+                            TimeUnit.NANOSECONDS.toMillis(
+                                System.nanoTime() - started
+                            ) +
+                            "ms, " +
+                            rsp.protocol() +
+                            ")"
+                        );
+                    }
+                }
+            );
+    }
+
+    @Override
+    public String getConnectionStats() {
+        return connectionMetrics.getStats(
+            http.connectionPool().idleConnectionCount(),
+            http.connectionPool().connectionCount()
+        );
+    }
+
+    @Override
+    public void shutdown() {
+        http.dispatcher().executorService().shutdownNow();
+        http.connectionPool().evictAll();
+    }
+
+    private void authorize(Request.Builder httpRequest) {
+        if (!apiKey.isEmpty()) {
+            httpRequest.addHeader("Authorization", "Bearer " + apiKey);
+        }
+    }
+
+    private static boolean isEventStream(Response rsp) {
+        String type = rsp.header("Content-Type", "");
+        return type.startsWith("text/event-stream");
+    }
+}
@@ -8,21 +8,55 @@ import org.bukkit.inventory.ItemStack;
 
 public class OpenAIPromptBuilder {
 
+    /** Bump when the prompts or rules change, so cached sorts are redone */
+    public static final String PROMPT_VERSION = "v4.5";
+
+    private static final String SORTING_RULES =
+        "RULES:\n" +
+        "1. Expert Minecraft inventory organization\n" +
+        "2. Group similar items (blocks, tools, resources)\n" +
+        "3. Put common items at top/beginning\n" +
+        "4. Stack items fully\n" +
+        "5. Output ONLY lines like \"12xSTONE\" with no explanations\n" +
+        "6. Be quick but thorough";
+
     public String buildSortingPrompt(List<ItemStack> items) {
         // Create inventory signature for prompt
         String signature = createItemSignature(items);
 
         return (
-            "[SMARTSORT v4.5] Inventory: " +
+            "[SMARTSORT " +
+            PROMPT_VERSION +
+            "] Inventory: " +
             signature +
             "\n" +
-            "RULES:\n" +
-            "1. Expert Minecraft inventory organization\n" +
-            "2. Group similar items (blocks, tools, resources)\n" +
-            "3. Put common items at top/beginning\n" +
-            "4. Stack items fully\n" +
-            "5. Output ONLY lines like \"12xSTONE\" with no explanations\n" +
-            "6. Be quick but thorough"
+            SORTING_RULES
+        );
+    }
+
+    /**
+     * Build one prompt that sorts several containers at once. Inventory i
+     * is labelled [C(i+1)] and its output must follow that label.
+     * @see OpenAIResponseParser#splitSections
+     */
+    public String buildBatchSortingPrompt(List<List<ItemStack>> inventories) {
+        StringBuilder sb = new StringBuilder(
+            "[SMARTSORT BATCH v1] Sort each inventory separately.\n"
+        );
+        for (int i = 0; i < inventories.size(); i++) {
+            sb
+                .append("[C")
+                .append(i + 1)
+                .append("] Inventory: ")
+                .append(createItemSignature(inventories.get(i)))
+                .append("\n");
+        }
+        return (
+            sb +
+            SORTING_RULES +
+            "\n" +
+            "7. Start each inventory's output with its label alone on a line, " +
+            "e.g. \"[C1]\""
         );
     }
 
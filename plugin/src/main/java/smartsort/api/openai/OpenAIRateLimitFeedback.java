@@ -0,0 +1,142 @@
+package smartsort.api.openai;
+
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import okhttp3.Headers;
+import smartsort.util.DebugLogger;
+import smartsort.util.RateLimiter;
+
+/**
+ * Feeds OpenAI's rate limit headers back into the local {@link RateLimiter}
+ * so throughput follows the account's real quota.
+ * <p>
+ * Request limits reported by OpenAI are per minute. The sustained rate is
+ * set from x-ratelimit-limit-requests, and the bucket is paused until the
+ * matching reset time whenever requests or tokens are about to run out, or
+ * for Retry-After on a 429/503.
+ */
+public class OpenAIRateLimitFeedback {
+
+    private static final Pattern DURATION_PART = Pattern.compile(
+        "(\\d+(?:\\.\\d+)?)(ms|h|m|s)"
+    );
+    private static final long DEFAULT_BACKOFF_NANOS =
+        TimeUnit.SECONDS.toNanos(1);
+
+    private final RateLimiter rateLimiter;
+    private final DebugLogger debug;
+    private final boolean adaptiveRate;
+    private final int tokenReserve;
+
+    /**
+     * @param rateLimiter Limiter to steer
+     * @param debug Debug logger
+     * @param adaptiveRate Whether the refill rate follows the account limit
+     * @param tokenReserve Pause when fewer quota tokens than this remain
+     */
+    public OpenAIRateLimitFeedback(
+        RateLimiter rateLimiter,
+        DebugLogger debug,
+        boolean adaptiveRate,
+        int tokenReserve
+    ) {
+        this.rateLimiter = rateLimiter;
+        this.debug = debug;
+        this.adaptiveRate = adaptiveRate;
+        this.tokenReserve = tokenReserve;
+    }
+
+    /**
+     * Apply the headers of a reply
+     * @return true if the limiter's rate went up and a waiting dispatcher
+     * should re-check
+     */
+    public boolean apply(int code, Headers headers) {
+        if (code == 429 || code == 503) {
+            long pause = retryAfterNanos(headers);
+            if (pause <= 0) pause = DEFAULT_BACKOFF_NANOS;
+            rateLimiter.pauseFor(pause);
+            debug.console(
+                "[RateLimiter] Server returned " +
+                code +
+                ", pausing for " +
+                TimeUnit.NANOSECONDS.toMillis(pause) +
+                "ms"
+            );
+        }
+
+        long remainingRequests = parseLong(
+            headers.get("x-ratelimit-remaining-requests")
+        );
+        if (remainingRequests == 0) {
+            rateLimiter.pauseFor(
+                parseDuration(headers.get("x-ratelimit-reset-requests"))
+            );
+        }
+
+        long remainingTokens = parseLong(
+            headers.get("x-ratelimit-remaining-tokens")
+        );
+        if (remainingTokens >= 0 && remainingTokens < tokenReserve) {
+            rateLimiter.pauseFor(
+                parseDuration(headers.get("x-ratelimit-reset-tokens"))
+            );
+        }
+
+        if (!adaptiveRate) return false;
+        long limitPerMinute = parseLong(
+            headers.get("x-ratelimit-limit-requests")
+        );
+        if (limitPerMinute <= 0) return false;
+
+        double before = rateLimiter.getRate();
+        return (
+            rateLimiter.setRate(limitPerMinute / 60.0) &&
+            rateLimiter.getRate() > before
+        );
+    }
+
+    private long retryAfterNanos(Headers headers) {
+        long millis = parseLong(headers.get("retry-after-ms"));
+        if (millis >= 0) return TimeUnit.MILLISECONDS.toNanos(millis);
+
+        String seconds = headers.get("retry-after");
+        if (seconds == null) return -1;
+        try {
+            return (long) (Double.parseDouble(seconds.trim()) * 1e9);
+        } catch (NumberFormatException e) {
+            // HTTP-date form is not used by OpenAI
+            return -1;
+        }
+    }
+
+    /**
+     * Parses reset durations such as "20ms", "1s", "6m0s" or "1h2m3.5s"
+     * @return Duration in nanoseconds, 0 if absent or unparseable
+     */
+    static long parseDuration(String value) {
+        if (value == null) return 0;
+        Matcher m = DURATION_PART.matcher(value.trim());
+        double nanos = 0;
+        while (m.find()) {
+            double amount = Double.parseDouble(m.group(1));
+            nanos += switch (m.group(2)) {
+                case "h" -> amount * 3_600e9;
+                case "m" -> amount * 60e9;
+                case "s" -> amount * 1e9;
+                default -> amount * 1e6;
+            };
+        }
+        return (long) nanos;
+    }
+
+    private static long parseLong(String value) {
+        if (value == null) return -1;
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
@@ -1,6 +1,8 @@
 package smartsort.api.openai;
 
 import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import org.bukkit.Material;
 import org.bukkit.inventory.ItemStack;
 import smartsort.api.BaseResponseParser;
@@ -8,6 +10,11 @@ import smartsort.util.DebugLogger;
 
 public class OpenAIResponseParser extends BaseResponseParser {
 
+    // "[C2]", also tolerating "C2:" or "**[C2]**"
+    private static final Pattern SECTION_LABEL = Pattern.compile(
+        "(?i)^[^A-Z0-9]*\\[?C(\\d{1,3})]?[^A-Z0-9]*$"
+    );
+
     public OpenAIResponseParser(DebugLogger debug) {
         super(debug);
     }
@@ -22,29 +29,112 @@ public class OpenAIResponseParser extends BaseResponseParser {
         String response,
         List<ItemStack> originalItems
     ) {
-        // Create a map to store original items by material
-        Map<Material, Queue<ItemStack>> stash = createMaterialMap(originalItems);
+        return startSession(originalItems).finish(response);
+    }
+
+    /**
+     * Split the reply to a batch prompt into one text per inventory
+     * @param response Reply to {@link OpenAIPromptBuilder#buildBatchSortingPrompt}
+     * @param count Number of inventories in the batch
+     * @return The lines under each label, "" for labels that are missing
+     */
+    public static List<String> splitSections(String response, int count) {
+        List<List<String>> sections = new ArrayList<>();
+        for (int i = 0; i < count; i++) sections.add(null);
 
-        // Parse the response and build the result list
-        List<ItemStack> result = new ArrayList<>();
+        List<String> current = null;
         for (String line : response.split("\n")) {
+            int label = sectionLabel(line, count);
+            if (label > 0) {
+                // A repeated label keeps appending to its section
+                current = sections.get(label - 1);
+                if (current == null) {
+                    current = new ArrayList<>();
+                    sections.set(label - 1, current);
+                }
+            } else if (current != null) {
+                current.add(line);
+            }
+        }
+
+        List<String> texts = new ArrayList<>(count);
+        for (List<String> section : sections) {
+            texts.add(section == null ? "" : String.join("\n", section));
+        }
+        return texts;
+    }
+
+    /**
+     * @return The 1-based section number if the line is a batch label for
+     * one of count sections, otherwise 0
+     */
+    public static int sectionLabel(String line, int count) {
+        Matcher m = SECTION_LABEL.matcher(line.trim());
+        if (!m.matches()) return 0;
+        int label = Integer.parseInt(m.group(1));
+        return label >= 1 && label <= count ? label : 0;
+    }
+
+    /**
+     * Start an incremental parse that can be fed a streamed reply
+     * @param originalItems The original items to source from
+     */
+    public Session startSession(List<ItemStack> originalItems) {
+        return new Session(originalItems);
+    }
+
+    /**
+     * Builds the sorted list while the reply streams in, taking items from
+     * the stash as each line arrives
+     */
+    public class Session extends StreamSession<List<ItemStack>> {
+
+        private final List<ItemStack> originalItems;
+        private Map<Material, Queue<ItemStack>> stash;
+        private List<ItemStack> result;
+        private int unknownMaterials;
+
+        private Session(List<ItemStack> originalItems) {
+            this.originalItems = originalItems;
+            reset();
+        }
+
+        @Override
+        protected void reset() {
+            // Create a map to store original items by material
+            stash = createMaterialMap(originalItems);
+            result = new ArrayList<>();
+            unknownMaterials = 0;
+        }
+
+        @Override
+        protected boolean accept(String line) {
             Object[] parsed = parseResponseLine(line);
-            if (parsed == null) continue;
-            
+            if (parsed == null) return true;
+
             int amount = (int) parsed[0];
             Material material = (Material) parsed[1];
 
             Queue<ItemStack> queue = stash.get(material);
-            if (queue == null || queue.isEmpty()) continue;
-            
+            if (queue == null) {
+                // Not in the container at all, the model is making things up
+                unknownMaterials++;
+                return unknownMaterials <= MAX_UNKNOWN_MATERIALS;
+            }
+            if (queue.isEmpty()) return true;
+
             // Extract items from the queue until we've satisfied the amount
             List<ItemStack> taken = takeItemsFromQueue(queue, amount);
             result.addAll(taken);
+            return true;
         }
 
-        // Add any remaining items from the stash
-        stash.values().forEach(queue -> queue.forEach(result::add));
-
-        return result;
+        @Override
+        protected List<ItemStack> build() {
+            List<ItemStack> sorted = new ArrayList<>(result);
+            // Add any remaining items from the stash
+            stash.values().forEach(queue -> queue.forEach(sorted::add));
+            return sorted;
+        }
     }
 }
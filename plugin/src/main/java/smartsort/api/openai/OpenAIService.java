@@ -3,37 +3,47 @@ package smartsort.api.openai;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
-import java.util.Deque;
+import java.util.ArrayList;
+import java.util.EnumMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.LinkedBlockingDeque;
-import java.util.concurrent.TimeUnit;
-import okhttp3.*;
 import org.bukkit.Bukkit;
-import org.json.JSONObject;
+import org.bukkit.scheduler.BukkitTask;
 import smartsort.SmartSortPlugin;
-import smartsort.util.AsyncTaskManager;
+import smartsort.api.backend.LocalSortBackend;
+import smartsort.api.backend.MockSortBackend;
+import smartsort.api.backend.SortBackend;
+import smartsort.api.pipeline.AiRequest;
+import smartsort.api.pipeline.RawReply;
+import smartsort.api.pipeline.ReplyRejectedException;
+import smartsort.api.pipeline.RequestKind;
+import smartsort.api.pipeline.RequestPipeline;
+import smartsort.api.pipeline.RetryPolicy;
+import smartsort.sorting.SortEngine;
+import smartsort.util.CircuitBreaker;
 import smartsort.util.DebugLogger;
 import smartsort.util.RateLimiter;
 
 public class OpenAIService {
 
-    private final OkHttpClient http = new OkHttpClient.Builder()
-        .connectTimeout(10, TimeUnit.SECONDS)
-        .readTimeout(45, TimeUnit.SECONDS) // Increased timeout
-        .build();
-    private final String apiKey;
     private final DebugLogger debug;
     private final SmartSortPlugin plugin;
     private final RateLimiter rateLimiter;
-    private final Deque<PendingRequest> requestQueue;
-    private final int queueMaxSize;
-    private final AsyncTaskManager asyncTaskManager;
-
-    public OpenAIService(SmartSortPlugin plugin, DebugLogger debug) {
+    private final RequestPipeline pipeline;
+    private final int tokensPerPermit;
+    private final SortBackend backend;
+    private final SortBackend fallback;
+    private final CircuitBreaker breaker;
+    private BukkitTask keepAliveTask;
+
+    public OpenAIService(
+        SmartSortPlugin plugin,
+        DebugLogger debug,
+        SortEngine sortEngine
+    ) {
         this.plugin = plugin;
         this.debug = debug;
-        this.apiKey = loadApiKey();
         int maxRequests = plugin
             .getConfig()
             .getInt("performance.max_requests", 3); // Reduced from 5 to 3
@@ -41,24 +51,155 @@ public class OpenAIService {
             .getConfig()
             .getInt("performance.per_seconds", 2); // Increased from 1 to 2
         this.rateLimiter = new RateLimiter(maxRequests, perSeconds, debug);
-        this.queueMaxSize = plugin
+        this.tokensPerPermit = Math.max(
+            1,
+            plugin.getConfig().getInt("performance.tokens_per_permit", 4000)
+        );
+        this.fallback = new LocalSortBackend(sortEngine);
+        this.backend = createBackend(sortEngine);
+        this.breaker = new CircuitBreaker(
+            backend.getName(),
+            debug,
+            plugin.getConfig().getInt("circuit_breaker.window_size", 20),
+            plugin.getConfig().getInt("circuit_breaker.min_calls", 5),
+            plugin
+                .getConfig()
+                .getInt("circuit_breaker.failure_rate_percent", 50),
+            plugin
+                .getConfig()
+                .getLong("circuit_breaker.slow_call_millis", 15000),
+            plugin.getConfig().getLong("circuit_breaker.open_seconds", 30),
+            plugin.getConfig().getInt("circuit_breaker.half_open_probes", 2)
+        );
+        int queueMaxSize = plugin
             .getConfig()
             .getInt("performance.queue_size", 20);
-        this.requestQueue = new LinkedBlockingDeque<>(queueMaxSize);
-        this.asyncTaskManager = plugin.getService(AsyncTaskManager.class);
+        int queuePerPlayer = plugin
+            .getConfig()
+            .getInt("performance.queue_per_player", 4);
+        long promoteAfterMillis = plugin
+            .getConfig()
+            .getLong("performance.queue_promote_after_millis", 5000);
+        this.pipeline = new RequestPipeline(
+            debug,
+            queueMaxSize,
+            queuePerPlayer,
+            promoteAfterMillis,
+            this::admit,
+            new RequestPipeline.RateLimit() {
+                @Override
+                public long tryAcquire(AiRequest request) {
+                    return rateLimiter.tryAcquireNanos(permitsFor(request));
+                }
 
-        // Start queue processor
-        startQueueProcessor();
+                @Override
+                public void release(long charge) {
+                    rateLimiter.release(charge);
+                }
 
-        if (apiKey.isEmpty() || apiKey.equals("your-api-key-here")) {
+                @Override
+                public long nanosUntilNextPermit(AiRequest request) {
+                    return rateLimiter.nanosUntilNextToken(
+                        permitsFor(request)
+                    );
+                }
+            },
+            this::dispatch,
+            backend::decode,
+            (request, completion) ->
+                Bukkit.getScheduler().runTask(plugin, completion),
+            loadRetryPolicies()
+        );
+
+        // Start the dispatcher thread that drains the request queue
+        pipeline.start();
+
+        if (!backend.isAvailable()) {
             plugin
                 .getLogger()
                 .severe(
                     "OpenAI key missing or invalid – plugin stays enabled but AI features are OFF"
                 );
+        } else {
+            startKeepAlive();
         }
     }
 
+    /**
+     * Connect now instead of on the first sort, then keep the connection
+     * warm while anyone is online to sort. Runs on the main thread, where
+     * the player list may be read; the ping itself is sent asynchronously.
+     */
+    private void startKeepAlive() {
+        backend.warmUp();
+
+        long interval = loadConnectionSettings().getWarmIntervalSeconds();
+        if (interval <= 0) return;
+        long ticks = interval * 20;
+        keepAliveTask = Bukkit.getScheduler()
+            .runTaskTimer(
+                plugin,
+                () -> {
+                    if (!Bukkit.getOnlinePlayers().isEmpty()) backend.warmUp();
+                },
+                ticks,
+                ticks
+            );
+    }
+
+    /**
+     * Create the backend selected by backend.type: "openai" (default),
+     * "compatible" for a self-hosted OpenAI-compatible server at
+     * backend.base_url, or "mock" for offline testing
+     */
+    private SortBackend createBackend(SortEngine sortEngine) {
+        String type = plugin.getConfig().getString("backend.type", "openai");
+        boolean streaming = plugin
+            .getConfig()
+            .getBoolean("openai.stream", true);
+        OpenAIRateLimitFeedback feedback = new OpenAIRateLimitFeedback(
+            rateLimiter,
+            debug,
+            plugin.getConfig().getBoolean("performance.adaptive_rate_limit", true),
+            Math.max(
+                0,
+                plugin
+                    .getConfig()
+                    .getInt("performance.rate_limit_token_reserve", 4000)
+            )
+        );
+
+        ConnectionSettings connections = loadConnectionSettings();
+
+        SortBackend created = switch (type.toLowerCase()) {
+            case "mock" -> new MockSortBackend(
+                sortEngine,
+                plugin.getConfig().getLong("backend.mock_latency_millis", 200)
+            );
+            case "compatible" -> new OpenAICompatibleBackend(
+                debug,
+                plugin
+                    .getConfig()
+                    .getString("backend.base_url", "http://localhost:8000/v1"),
+                plugin.getConfig().getString("backend.api_key", ""),
+                streaming,
+                connections,
+                feedback,
+                () -> pipeline.wakeDispatcher()
+            );
+            default -> new OpenAIBackend(
+                debug,
+                loadApiKey(),
+                streaming,
+                connections,
+                feedback,
+                () -> pipeline.wakeDispatcher()
+            );
+        };
+        debug.console("[AI] Using " + created.getName() + " backend");
+        return created;
+    }
+
     private String loadApiKey() {
         // Try environment variable first
         String key = System.getenv("OPENAI_API_KEY");
@@ -80,44 +221,60 @@ public class OpenAIService {
         return plugin.getConfig().getString("openai.api_key", "");
     }
 
-    public void shutdown() {
-        http.dispatcher().executorService().shutdownNow();
-        http.connectionPool().evictAll();
-    }
-
-    private void startQueueProcessor() {
-        plugin
-            .getServer()
-            .getScheduler()
-            .runTaskTimer(plugin, this::processQueue, 20L, 20L);
+    /**
+     * Read HTTP pool and keep-alive settings from the "connection" config
+     * section
+     */
+    private ConnectionSettings loadConnectionSettings() {
+        return ConnectionSettings.fromConfig(
+            plugin.getConfig().getConfigurationSection("connection"),
+            new ConnectionSettings(4, 4, 300, 30, 60)
+        );
     }
 
-    private void processQueue() {
-        if (requestQueue.isEmpty() || !rateLimiter.tryAcquire()) {
-            return;
-        }
+    /**
+     * Read per-kind retry settings from the "retry" config section
+     */
+    private Map<RequestKind, RetryPolicy> loadRetryPolicies() {
+        Map<RequestKind, RetryPolicy> defaults = new EnumMap<>(
+            RequestKind.class
+        );
+        defaults.put(
+            RequestKind.CONTAINER_SORT,
+            new RetryPolicy(3, 500, 4000, 20_000)
+        );
+        defaults.put(
+            RequestKind.PLAYER_SORT,
+            new RetryPolicy(3, 500, 4000, 25_000)
+        );
+        defaults.put(
+            RequestKind.TEST_CHEST,
+            new RetryPolicy(2, 1000, 5000, 60_000)
+        );
 
-        PendingRequest request = requestQueue.poll();
-        if (request != null) {
-            // Use AsyncTaskManager to execute the request
-            asyncTaskManager.submitTask(() -> executeRequest(request));
-        }
+        Map<RequestKind, RetryPolicy> policies = new EnumMap<>(
+            RequestKind.class
+        );
+        defaults.forEach((kind, fallback) ->
+            policies.put(
+                kind,
+                RetryPolicy.fromConfig(
+                    plugin
+                        .getConfig()
+                        .getConfigurationSection(
+                            "retry." + kind.name().toLowerCase()
+                        ),
+                    fallback
+                )
+            )
+        );
+        return policies;
     }
 
-    private void executeRequest(PendingRequest request) {
-        if (request.forcedModel != null) {
-            executeModelRequest(
-                request.prompt,
-                request.future,
-                request.forcedModel
-            );
-        } else {
-            executeCountRequest(
-                request.prompt,
-                request.future,
-                request.itemCount
-            );
-        }
+    public void shutdown() {
+        if (keepAliveTask != null) keepAliveTask.cancel();
+        pipeline.shutdown();
+        backend.shutdown();
     }
 
     public String selectModel(int itemCount) {
@@ -141,350 +298,140 @@ public class OpenAIService {
         }
     }
 
-    public CompletableFuture<String> chat(String prompt) {
-        return chat(prompt, 0);
+    /**
+     * Submit a request through the shared request pipeline
+     * @param request The request to run
+     * @return Future completed on the main thread with the reply, or "" on failure
+     */
+    public CompletableFuture<String> submit(AiRequest request) {
+        // Don't queue behind a backend that is known to be down
+        if (useFallback() && breaker.isOpen()) return answerLocally(request);
+        return pipeline.submit(request);
     }
 
-    public CompletableFuture<String> chat(String prompt, int itemCount) {
-        if (apiKey.isEmpty() || apiKey.equals("your-api-key-here")) {
-            Bukkit.getScheduler()
-                .runTask(plugin, () -> {
-                    debug.console(
-                        "[AI] ERROR: API key is missing or using default value. Please set a valid key in config.yml"
-                    );
-                });
-            return CompletableFuture.completedFuture("");
-        }
-
-        CompletableFuture<String> future = new CompletableFuture<>();
-
-        if (!rateLimiter.tryAcquire()) {
-            Bukkit.getScheduler()
-                .runTask(plugin, () -> {
-                    debug.console(
-                        "[AI] Rate limit reached, request queued for later execution"
-                    );
-                });
-
-            // Instead of recursive scheduling, add to bounded queue
-            PendingRequest request = new PendingRequest(
-                prompt,
-                future,
-                itemCount
-            );
-            if (!requestQueue.offer(request)) {
-                Bukkit.getScheduler()
-                    .runTask(plugin, () -> {
-                        debug.console("[AI] Queue full, request dropped");
-                        future.complete("");
-                    });
-            }
-            return future;
-        }
-
-        executeCountRequest(prompt, future, itemCount);
-        return future;
+    /**
+     * Cancel a submitted request whose result can no longer be applied.
+     * Frees its queue slot or aborts its HTTP call.
+     * @param request The request to cancel
+     */
+    public void cancel(AiRequest request) {
+        pipeline.cancel(request);
     }
 
-    private void executeCountRequest(
-        String prompt,
-        CompletableFuture<String> future,
-        int itemCount
-    ) {
-        String selectedModel = selectModel(itemCount);
-        Bukkit.getScheduler()
-            .runTask(plugin, () -> {
-                debug.console(
-                    "[AI] Using model: " +
-                    selectedModel +
-                    " for " +
-                    itemCount +
-                    " items"
-                );
-            });
-
-        JSONObject json = new JSONObject()
-            .put("model", selectedModel)
-            .put("temperature", 0.3)
-            .put(
-                "messages",
-                List.of(
-                    new JSONObject().put("role", "user").put("content", prompt)
-                )
-            );
-
-        RequestBody body = RequestBody.create(
-            json.toString(),
-            MediaType.parse("application/json")
+    /**
+     * Get statistics about the request pipeline and rate limiter
+     * @return Lines of human readable statistics
+     */
+    public List<String> getStats() {
+        List<String> stats = new ArrayList<>(
+            List.of(
+                "Backend: " + backend.getName(),
+                pipeline.getMetrics().getStats(),
+                "Queue: " + pipeline.getQueueSize() + " waiting",
+                rateLimiter.getStats(),
+                breaker.getStats()
+            )
         );
-        Request request = new Request.Builder()
-            .url("https://api.openai.com/v1/chat/completions")
-            .addHeader("Authorization", "Bearer " + apiKey)
-            .post(body)
-            .build();
-
-        http
-            .newCall(request)
-            .enqueue(
-                new Callback() {
-                    public void onFailure(Call call, IOException e) {
-                        Bukkit.getScheduler()
-                            .runTask(plugin, () -> {
-                                debug.console(
-                                    "[AI] Call failed: " + e.getMessage()
-                                );
-                                future.complete("");
-                            });
-                    }
-
-                    public void onResponse(Call call, Response rsp)
-                        throws IOException {
-                        try {
-                            String responseBody = rsp.body().string();
-                            final int responseCode = rsp.code();
-
-                            Bukkit.getScheduler()
-                                .runTask(plugin, () -> {
-                                    debug.console(
-                                        "[AI] Response code: " + responseCode
-                                    );
-
-                                    if (responseCode != 200) {
-                                        debug.console(
-                                            "[AI] Error response: " + responseBody
-                                        );
-                                        future.complete("");
-                                        return;
-                                    }
-
-                                    try {
-                                        JSONObject json = new JSONObject(
-                                            responseBody
-                                        );
-                                        if (
-                                            !json.has("choices") ||
-                                            json.getJSONArray("choices").length() ==
-                                            0
-                                        ) {
-                                            debug.console(
-                                                "[AI] Invalid response format: " +
-                                                responseBody
-                                            );
-                                            future.complete("");
-                                            return;
-                                        }
-
-                                        String content = json
-                                            .getJSONArray("choices")
-                                            .getJSONObject(0)
-                                            .getJSONObject("message")
-                                            .getString("content");
-                                        future.complete(content);
-                                    } catch (Exception ex) {
-                                        debug.console(
-                                            "[AI] Response parsing error: " +
-                                            ex.getMessage()
-                                        );
-                                        future.complete("");
-                                    }
-                                });
-                        } catch (Exception ex) {
-                            Bukkit.getScheduler()
-                                .runTask(plugin, () -> {
-                                    debug.console(
-                                        "[AI] Response reading error: " +
-                                        ex.getMessage()
-                                    );
-                                    future.complete("");
-                                });
-                        }
-                    }
-                }
-            );
+        String connections = backend.getConnectionStats();
+        if (connections != null) stats.add(connections);
+        return stats;
     }
 
-    public CompletableFuture<String> chat(String prompt, String forcedModel) {
-        if (apiKey.isEmpty() || apiKey.equals("your-api-key-here")) {
-            Bukkit.getScheduler()
-                .runTask(plugin, () -> {
-                    debug.console(
-                        "[AI] ERROR: API key is missing or using default value. Please set a valid key in config.yml"
-                    );
-                });
-            return CompletableFuture.completedFuture("");
-        }
+    /**
+     * Large prompts cost more than one rate limit permit so that a burst of
+     * huge double-chest prompts can't exhaust the account's token quota
+     */
+    private int permitsFor(AiRequest request) {
+        // Roughly four characters per token for English/material names
+        int estimatedTokens = request.getPrompt().length() / 4;
+        return 1 + estimatedTokens / tokensPerPermit;
+    }
 
-        CompletableFuture<String> future = new CompletableFuture<>();
+    private boolean admit(AiRequest request) {
+        if (backend.isAvailable()) return true;
+        debug.console(
+            "[AI] ERROR: API key is missing or using default value. Please set a valid key in config.yml"
+        );
+        return false;
+    }
 
-        if (!rateLimiter.tryAcquire()) {
-            Bukkit.getScheduler()
-                .runTask(plugin, () -> {
-                    debug.console(
-                        "[AI] Rate limit reached, request queued for later execution"
-                    );
-                });
+    private CompletableFuture<RawReply> dispatch(AiRequest request) {
+        String model = request.getForcedModel() != null
+            ? request.getForcedModel()
+            : selectModel(request.getItemCount());
+        // Self-hosted servers usually serve one model under their own name
+        String override = plugin.getConfig().getString("backend.model", "");
+        if (override != null && !override.isEmpty()) model = override;
+        debug.console(
+            "[AI] Using model: " +
+            model +
+            " for " +
+            request.getKind() +
+            " (" +
+            request.getItemCount() +
+            " items)"
+        );
 
-            // Add to bounded queue instead of recursive scheduling
-            PendingRequest request = new PendingRequest(
-                prompt,
-                future,
-                forcedModel
-            );
-            if (!requestQueue.offer(request)) {
-                Bukkit.getScheduler()
-                    .runTask(plugin, () -> {
-                        debug.console("[AI] Queue full, request dropped");
-                        future.complete("");
-                    });
-            }
-            return future;
+        if (useFallback() && !breaker.tryAcquire()) {
+            // Opened while this request was queued
+            breaker.recordFallback();
+            request.markAnsweredLocally();
+            return fallback.send(request, model);
         }
-
-        executeModelRequest(prompt, future, forcedModel);
-        return future;
-    }
-
-    private void executeModelRequest(
-        String prompt,
-        CompletableFuture<String> future,
-        String forcedModel
-    ) {
-        Bukkit.getScheduler()
-            .runTask(plugin, () -> {
-                debug.console("[AI] Using forced model: " + forcedModel);
+        if (backend instanceof LocalSortBackend) request.markAnsweredLocally();
+
+        long started = System.nanoTime();
+        CompletableFuture<RawReply> reply = backend.send(request, model);
+        if (useFallback()) {
+            reply.whenComplete((raw, error) -> {
+                if (
+                    reply.isCancelled() ||
+                    ReplyRejectedException.isRejection(error)
+                ) {
+                    // Bad output, not a backend failure
+                    breaker.recordIgnored();
+                } else if (error != null || raw.getCode() != 200) {
+                    breaker.recordFailure();
+                } else {
+                    breaker.recordSuccess(System.nanoTime() - started);
+                }
             });
+        }
+        return reply;
+    }
 
-        JSONObject json = new JSONObject()
-            .put("model", forcedModel)
-            .put("temperature", 0.3)
-            .put(
-                "messages",
-                List.of(
-                    new JSONObject().put("role", "user").put("content", prompt)
-                )
-            );
-
-        RequestBody body = RequestBody.create(
-            json.toString(),
-            MediaType.parse("application/json")
+    /**
+     * Answer a request with the local rule-based sorter, bypassing the
+     * queue and rate limit
+     */
+    private CompletableFuture<String> answerLocally(AiRequest request) {
+        breaker.recordFallback();
+        request.markAnsweredLocally();
+        debug.console(
+            "[AI] " +
+            backend.getName() +
+            " unavailable, answering " +
+            request.getKind() +
+            " locally"
         );
-        Request request = new Request.Builder()
-            .url("https://api.openai.com/v1/chat/completions")
-            .addHeader("Authorization", "Bearer " + apiKey)
-            .post(body)
-            .build();
-
-        http
-            .newCall(request)
-            .enqueue(
-                new Callback() {
-                    public void onFailure(Call call, IOException e) {
-                        Bukkit.getScheduler()
-                            .runTask(plugin, () -> {
-                                debug.console(
-                                    "[AI] Call failed: " + e.getMessage()
-                                );
-                                future.complete("");
-                            });
-                    }
-
-                    public void onResponse(Call call, Response rsp)
-                        throws IOException {
-                        try {
-                            String responseBody = rsp.body().string();
-                            final int responseCode = rsp.code();
-
-                            Bukkit.getScheduler()
-                                .runTask(plugin, () -> {
-                                    debug.console(
-                                        "[AI] Response code: " + responseCode
-                                    );
-
-                                    if (responseCode != 200) {
-                                        debug.console(
-                                            "[AI] Error response: " +
-                                            responseBody
-                                        );
-                                        future.complete("");
-                                        return;
-                                    }
-
-                                    try {
-                                        JSONObject json = new JSONObject(
-                                            responseBody
-                                        );
-                                        if (
-                                            !json.has("choices") ||
-                                            json
-                                                .getJSONArray("choices")
-                                                .length() ==
-                                            0
-                                        ) {
-                                            debug.console(
-                                                "[AI] Invalid response format: " +
-                                                responseBody
-                                            );
-                                            future.complete("");
-                                            return;
-                                        }
-
-                                        String content = json
-                                            .getJSONArray("choices")
-                                            .getJSONObject(0)
-                                            .getJSONObject("message")
-                                            .getString("content");
-                                        future.complete(content);
-                                    } catch (Exception ex) {
-                                        debug.console(
-                                            "[AI] Response parsing error: " +
-                                            ex.getMessage()
-                                        );
-                                        future.complete("");
-                                    }
-                                });
-                        } catch (Exception ex) {
-                            Bukkit.getScheduler()
-                                .runTask(plugin, () -> {
-                                    debug.console(
-                                        "[AI] Response reading error: " +
-                                        ex.getMessage()
-                                    );
-                                    future.complete("");
-                                });
-                        }
-                    }
-                }
-            );
+        CompletableFuture<String> result = new CompletableFuture<>();
+        fallback
+            .send(request, "local")
+            .whenComplete((raw, error) -> {
+                String content = error == null ? fallback.decode(raw) : "";
+                Bukkit.getScheduler()
+                    .runTask(plugin, () -> result.complete(content));
+            });
+        return result;
     }
 
-    // Helper class to store pending requests in the queue
-    private class PendingRequest {
-
-        final String prompt;
-        final CompletableFuture<String> future;
-        final int itemCount;
-        final String forcedModel;
-
-        PendingRequest(
-            String prompt,
-            CompletableFuture<String> future,
-            int itemCount
-        ) {
-            this.prompt = prompt;
-            this.future = future;
-            this.itemCount = itemCount;
-            this.forcedModel = null;
-        }
-
-        PendingRequest(
-            String prompt,
-            CompletableFuture<String> future,
-            String forcedModel
-        ) {
-            this.prompt = prompt;
-            this.future = future;
-            this.itemCount = 0;
-            this.forcedModel = forcedModel;
-        }
+    /**
+     * The breaker only guards real remote backends
+     */
+    private boolean useFallback() {
+        return (
+            !(backend instanceof LocalSortBackend) &&
+            plugin.getConfig().getBoolean("circuit_breaker.enabled", true)
+        );
     }
 }
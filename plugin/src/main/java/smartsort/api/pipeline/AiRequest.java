@@ -0,0 +1,277 @@
+package smartsort.api.pipeline;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BooleanSupplier;
+
+/**
+ * A single AI completion request as it moves through the
+ * {@link RequestPipeline}. Records a timestamp at every stage boundary.
+ */
+public class AiRequest {
+
+    private final RequestKind kind;
+    private final UUID requester;
+    private final String prompt;
+    private final int itemCount;
+    private final String forcedModel;
+    private final CompletableFuture<String> result = new CompletableFuture<>();
+    private volatile BooleanSupplier validityCheck = () -> true;
+    private volatile long deadlineNanos = Long.MAX_VALUE;
+    private volatile int attempts;
+    private volatile boolean cancelled;
+    private volatile boolean answeredLocally;
+    private volatile CompletableFuture<RawReply> pendingReply;
+    private volatile StreamListener streamListener;
+    // Other players whose work is bundled into this request
+    private volatile List<UUID> coRequesters = List.of();
+    // Identical requests that share this one's reply
+    private final List<AiRequest> followers = new CopyOnWriteArrayList<>();
+    private boolean followersClosed;
+
+    private final long createdAt = System.nanoTime();
+    private volatile long dispatchedAt;
+    private volatile long receivedAt;
+    private volatile long decodedAt;
+    private volatile long deliveredAt;
+
+    /**
+     * Creates a request whose model is picked from the item count
+     * @param kind What the request is for
+     * @param requester Player the request is made for, or null
+     * @param prompt Prompt text
+     * @param itemCount Number of item stacks described by the prompt
+     */
+    public AiRequest(
+        RequestKind kind,
+        UUID requester,
+        String prompt,
+        int itemCount
+    ) {
+        this(kind, requester, prompt, itemCount, null);
+    }
+
+    /**
+     * Creates a request that always uses the given model
+     * @param kind What the request is for
+     * @param requester Player the request is made for, or null
+     * @param prompt Prompt text
+     * @param forcedModel Model name to use
+     */
+    public AiRequest(
+        RequestKind kind,
+        UUID requester,
+        String prompt,
+        String forcedModel
+    ) {
+        this(kind, requester, prompt, 0, forcedModel);
+    }
+
+    private AiRequest(
+        RequestKind kind,
+        UUID requester,
+        String prompt,
+        int itemCount,
+        String forcedModel
+    ) {
+        this.kind = kind;
+        this.requester = requester;
+        this.prompt = prompt;
+        this.itemCount = itemCount;
+        this.forcedModel = forcedModel;
+    }
+
+    public RequestKind getKind() {
+        return kind;
+    }
+
+    public UUID getRequester() {
+        return requester;
+    }
+
+    public String getPrompt() {
+        return prompt;
+    }
+
+    public int getItemCount() {
+        return itemCount;
+    }
+
+    /**
+     * @return the forced model, or null if the model should be selected
+     * from the item count
+     */
+    public String getForcedModel() {
+        return forcedModel;
+    }
+
+    /**
+     * Set a check that tells the pipeline whether the result can still be
+     * used. Once it returns false the request is neither sent nor retried.
+     * Called from pipeline threads, so it must be thread-safe.
+     */
+    public void setValidityCheck(BooleanSupplier validityCheck) {
+        this.validityCheck = validityCheck;
+    }
+
+    /**
+     * Charge this request to other players besides the requester, e.g. for
+     * a batch holding several players' sorts. While queued it takes a slot
+     * of each player's share of the queue.
+     */
+    public void setCoRequesters(List<UUID> coRequesters) {
+        this.coRequesters = List.copyOf(coRequesters);
+    }
+
+    /**
+     * Receive the reply line by line while it streams in, if the backend
+     * streams. Requests that share another request's reply don't stream.
+     */
+    public void setStreamListener(StreamListener streamListener) {
+        this.streamListener = streamListener;
+    }
+
+    /**
+     * @return The stream listener, or null if none was set
+     */
+    public StreamListener getStreamListener() {
+        return streamListener;
+    }
+
+    /**
+     * @return true while the deadline has not passed and this request, or
+     * any request sharing its reply, is neither cancelled nor failing its
+     * validity check
+     */
+    public boolean isStillWanted() {
+        if (nanosUntilDeadline() <= 0) return false;
+        if (wantedByRequester()) return true;
+        for (AiRequest follower : followers) {
+            if (follower.wantedByRequester()) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Note that the reply comes from the local rule-based sorter rather
+     * than the AI, e.g. while the circuit breaker is open
+     */
+    public void markAnsweredLocally() {
+        answeredLocally = true;
+    }
+
+    /**
+     * @return true if the reply was not made by the AI, so it must not be
+     * cached or learned from
+     */
+    public boolean isAnsweredLocally() {
+        return answeredLocally;
+    }
+
+    /**
+     * @return How many times this request has been dispatched
+     */
+    public int getAttempts() {
+        return attempts;
+    }
+
+    /**
+     * Completed on the main thread with the reply text, or "" on failure
+     */
+    public CompletableFuture<String> result() {
+        return result;
+    }
+
+    List<UUID> getCoRequesters() {
+        return coRequesters;
+    }
+
+    long getCreatedAt() {
+        return createdAt;
+    }
+
+    long getDispatchedAt() {
+        return dispatchedAt;
+    }
+
+    long getReceivedAt() {
+        return receivedAt;
+    }
+
+    long getDecodedAt() {
+        return decodedAt;
+    }
+
+    long getDeliveredAt() {
+        return deliveredAt;
+    }
+
+    long nanosUntilDeadline() {
+        return deadlineNanos - (System.nanoTime() - createdAt);
+    }
+
+    void setDeadline(long deadlineNanos) {
+        this.deadlineNanos = deadlineNanos;
+    }
+
+    /** Not cancelled and still passing its own validity check */
+    private boolean wantedByRequester() {
+        return !cancelled && validityCheck.getAsBoolean();
+    }
+
+    void markCancelled() {
+        cancelled = true;
+    }
+
+    /**
+     * @return The reply of the attempt currently in flight, or null
+     */
+    CompletableFuture<RawReply> getPendingReply() {
+        return pendingReply;
+    }
+
+    void setPendingReply(CompletableFuture<RawReply> pendingReply) {
+        this.pendingReply = pendingReply;
+    }
+
+    /**
+     * Share this request's reply with an identical request
+     * @return false if the reply is already being delivered
+     */
+    synchronized boolean attach(AiRequest follower) {
+        if (followersClosed) return false;
+        followers.add(follower);
+        return true;
+    }
+
+    /**
+     * Stop accepting followers
+     * @return The requests that are waiting on this one's reply
+     */
+    synchronized List<AiRequest> closeFollowers() {
+        followersClosed = true;
+        return List.copyOf(followers);
+    }
+
+    void markDispatched() {
+        dispatchedAt = System.nanoTime();
+        // Stamps of an earlier attempt don't belong to this one
+        receivedAt = 0;
+        decodedAt = 0;
+        attempts++;
+    }
+
+    void markReceived() {
+        receivedAt = System.nanoTime();
+    }
+
+    void markDecoded() {
+        decodedAt = System.nanoTime();
+    }
+
+    void markDelivered() {
+        deliveredAt = System.nanoTime();
+    }
+}
@@ -0,0 +1,230 @@
+package smartsort.api.pipeline;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+/**
+ * Bounded request queue that is fair between players.
+ * <p>
+ * Requests are grouped by {@link RequestKind#getPriority()} and, within a
+ * priority, by the player they were made for. The next request comes from
+ * the most urgent non-empty priority, rotating between players so one
+ * player with many queued requests can't hold up everyone else. A request
+ * that has waited longer than the promotion age goes first regardless of
+ * priority, so background work can't starve.
+ * <p>
+ * Each player may only have a limited number of requests queued; a request
+ * bundling several players' work counts against each of them. When the
+ * whole queue is full, a request from a player with few queued requests
+ * displaces the newest request of the player with the most.
+ */
+class FairRequestQueue {
+
+    // Tenant for requests that aren't made for a player
+    private static final UUID SERVER = new UUID(0, 0);
+
+    private final int capacity;
+    private final int perPlayerLimit;
+    private final long promoteAfterNanos;
+    private final Consumer<AiRequest> onDisplaced;
+    // One rotation per priority; iteration order is the round-robin order
+    private final List<LinkedHashMap<UUID, ArrayDeque<AiRequest>>> levels =
+        new ArrayList<>();
+    private final Map<UUID, Integer> queuedPerPlayer = new HashMap<>();
+    private int size;
+
+    /**
+     * @param capacity Maximum number of queued requests
+     * @param perPlayerLimit Maximum number of queued requests per player
+     * @param promoteAfterNanos Age after which a request is served first
+     * @param onDisplaced Called with requests pushed out by fairer ones
+     */
+    FairRequestQueue(
+        int capacity,
+        int perPlayerLimit,
+        long promoteAfterNanos,
+        Consumer<AiRequest> onDisplaced
+    ) {
+        this.capacity = Math.max(1, capacity);
+        this.perPlayerLimit = Math.max(1, perPlayerLimit);
+        this.promoteAfterNanos = promoteAfterNanos;
+        this.onDisplaced = onDisplaced;
+
+        int lowest = 0;
+        for (RequestKind kind : RequestKind.values()) {
+            lowest = Math.max(lowest, kind.getPriority());
+        }
+        for (int i = 0; i <= lowest; i++) {
+            levels.add(new LinkedHashMap<>());
+        }
+    }
+
+    /**
+     * Queue a new request
+     * @return false if one of the request's players or the whole queue is
+     * full
+     */
+    boolean offer(AiRequest request) {
+        AiRequest displaced = null;
+        synchronized (this) {
+            int queued = 0;
+            for (UUID tenant : tenantsOf(request)) {
+                queued = Math.max(
+                    queued,
+                    queuedPerPlayer.getOrDefault(tenant, 0)
+                );
+            }
+            if (queued >= perPlayerLimit) return false;
+
+            if (size >= capacity) {
+                displaced = displacementFor(request, queued);
+                if (displaced == null) return false;
+                remove(displaced);
+            }
+            deque(request).addLast(request);
+            added(request);
+        }
+        if (displaced != null) onDisplaced.accept(displaced);
+        return true;
+    }
+
+    /**
+     * Put a request back at the front of its player's queue, e.g. for a
+     * retry. Ignores the limits since the request already held a slot.
+     */
+    synchronized void requeue(AiRequest request) {
+        deque(request).addFirst(request);
+        added(request);
+    }
+
+    /**
+     * @return The request that should be dispatched next, or null if empty
+     */
+    synchronized AiRequest peek() {
+        if (size == 0) return null;
+
+        AiRequest oldest = null;
+        for (LinkedHashMap<UUID, ArrayDeque<AiRequest>> level : levels) {
+            for (ArrayDeque<AiRequest> deque : level.values()) {
+                AiRequest head = deque.peekFirst();
+                if (
+                    oldest == null ||
+                    head.getCreatedAt() < oldest.getCreatedAt()
+                ) {
+                    oldest = head;
+                }
+            }
+        }
+        if (System.nanoTime() - oldest.getCreatedAt() >= promoteAfterNanos) {
+            return oldest;
+        }
+
+        for (LinkedHashMap<UUID, ArrayDeque<AiRequest>> level : levels) {
+            if (!level.isEmpty()) {
+                return level.values().iterator().next().peekFirst();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Remove a request and move its player to the back of the rotation
+     * @return false if the request was not queued
+     */
+    synchronized boolean remove(AiRequest request) {
+        UUID tenant = tenantOf(request);
+        LinkedHashMap<UUID, ArrayDeque<AiRequest>> level = levels.get(
+            request.getKind().getPriority()
+        );
+        ArrayDeque<AiRequest> deque = level.get(tenant);
+        if (deque == null || !deque.remove(request)) return false;
+
+        level.remove(tenant);
+        if (!deque.isEmpty()) level.put(tenant, deque);
+        size--;
+        for (UUID charged : tenantsOf(request)) {
+            queuedPerPlayer.computeIfPresent(charged, (k, n) ->
+                n > 1 ? n - 1 : null
+            );
+        }
+        return true;
+    }
+
+    /**
+     * @return The next request, removed from the queue, or null if empty
+     */
+    synchronized AiRequest poll() {
+        AiRequest next = peek();
+        if (next != null) remove(next);
+        return next;
+    }
+
+    synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Pick the newest request of the player with the most queued requests,
+     * if that player has clearly more than the new request's player
+     */
+    private AiRequest displacementFor(AiRequest request, int queued) {
+        UUID heaviest = null;
+        int most = queued + 1;
+        for (Map.Entry<UUID, Integer> entry : queuedPerPlayer.entrySet()) {
+            if (entry.getValue() > most) {
+                heaviest = entry.getKey();
+                most = entry.getValue();
+            }
+        }
+        if (heaviest == null) return null;
+
+        // Least urgent first, but never push out more urgent work
+        for (int i = levels.size() - 1; i >= 0; i--) {
+            if (i < request.getKind().getPriority()) break;
+            ArrayDeque<AiRequest> deque = levels.get(i).get(heaviest);
+            if (deque != null) return deque.peekLast();
+        }
+        return null;
+    }
+
+    private ArrayDeque<AiRequest> deque(AiRequest request) {
+        return levels
+            .get(request.getKind().getPriority())
+            .computeIfAbsent(tenantOf(request), k -> new ArrayDeque<>());
+    }
+
+    private void added(AiRequest request) {
+        size++;
+        for (UUID tenant : tenantsOf(request)) {
+            queuedPerPlayer.merge(tenant, 1, Integer::sum);
+        }
+    }
+
+    /**
+     * @return The request's tenant followed by any other players it is
+     * charged to, without duplicates
+     */
+    private static List<UUID> tenantsOf(AiRequest request) {
+        UUID tenant = tenantOf(request);
+        List<UUID> others = request.getCoRequesters();
+        if (others.isEmpty()) return List.of(tenant);
+        List<UUID> tenants = new ArrayList<>(others.size() + 1);
+        tenants.add(tenant);
+        for (UUID other : others) {
+            if (!tenants.contains(other)) tenants.add(other);
+        }
+        return tenants;
+    }
+
+    private static UUID tenantOf(AiRequest request) {
+        return request.getRequester() != null
+            ? request.getRequester()
+            : SERVER;
+    }
+}
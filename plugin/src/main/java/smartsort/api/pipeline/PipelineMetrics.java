@@ -0,0 +1,121 @@
+package smartsort.api.pipeline;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and accumulated stage timings for the request pipeline.
+ * Safe to update from any thread.
+ */
+public class PipelineMetrics {
+
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder queued = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder retried = new LongAdder();
+    private final LongAdder expired = new LongAdder();
+    private final LongAdder cancelled = new LongAdder();
+    private final LongAdder succeeded = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    private final LongAdder dispatchedCount = new LongAdder();
+    private final LongAdder queueWaitNanos = new LongAdder();
+    private final LongAdder httpNanos = new LongAdder();
+    private final LongAdder decodeNanos = new LongAdder();
+    private final LongAdder deliveryNanos = new LongAdder();
+
+    void recordSubmitted() {
+        submitted.increment();
+    }
+
+    void recordRejected() {
+        rejected.increment();
+    }
+
+    void recordQueued() {
+        queued.increment();
+    }
+
+    void recordCoalesced() {
+        coalesced.increment();
+    }
+
+    void recordDropped() {
+        dropped.increment();
+    }
+
+    void recordRetried() {
+        retried.increment();
+    }
+
+    void recordExpired() {
+        expired.increment();
+    }
+
+    void recordCancelled() {
+        cancelled.increment();
+    }
+
+    /**
+     * Records a request that reached the delivery stage
+     */
+    void recordDelivered(AiRequest request, boolean success) {
+        if (success) succeeded.increment();
+        else failed.increment();
+
+        // Only attempts that got through every stage have timings, not e.g.
+        // a retry that expired while waiting
+        if (request.getDecodedAt() == 0) return;
+        dispatchedCount.increment();
+        queueWaitNanos.add(request.getDispatchedAt() - request.getCreatedAt());
+        httpNanos.add(request.getReceivedAt() - request.getDispatchedAt());
+        decodeNanos.add(request.getDecodedAt() - request.getReceivedAt());
+        deliveryNanos.add(request.getDeliveredAt() - request.getDecodedAt());
+    }
+
+    /**
+     * Get statistics about pipeline usage
+     * @return String containing pipeline statistics
+     */
+    public String getStats() {
+        long n = Math.max(1, dispatchedCount.sum());
+        return (
+            "Pipeline Stats: " +
+            "Submitted=" +
+            submitted.sum() +
+            ", Rejected=" +
+            rejected.sum() +
+            ", Queued=" +
+            queued.sum() +
+            ", Coalesced=" +
+            coalesced.sum() +
+            ", Dropped=" +
+            dropped.sum() +
+            ", Retried=" +
+            retried.sum() +
+            ", Expired=" +
+            expired.sum() +
+            ", Cancelled=" +
+            cancelled.sum() +
+            ", OK=" +
+            succeeded.sum() +
+            ", Failed=" +
+            failed.sum() +
+            " | avg queue=" +
+            avgMillis(queueWaitNanos, n) +
+            "ms http=" +
+            avgMillis(httpNanos, n) +
+            "ms decode=" +
+            avgMillis(decodeNanos, n) +
+            "ms deliver=" +
+            avgMillis(deliveryNanos, n) +
+            "ms"
+        );
+    }
+
+    private static long avgMillis(LongAdder total, long count) {
+        return TimeUnit.NANOSECONDS.toMillis(total.sum() / count);
+    }
+}
@@ -0,0 +1,37 @@
+package smartsort.api.pipeline;
+
+/**
+ * Undecoded reply returned by the dispatch stage.
+ */
+public class RawReply {
+
+    private final int code;
+    private final String body;
+    private final String streamedContent;
+
+    public RawReply(int code, String body) {
+        this(code, body, null);
+    }
+
+    /**
+     * @param streamedContent Message content already assembled from a
+     * streamed reply, or null if the body still has to be decoded
+     */
+    public RawReply(int code, String body, String streamedContent) {
+        this.code = code;
+        this.body = body;
+        this.streamedContent = streamedContent;
+    }
+
+    public int getCode() {
+        return code;
+    }
+
+    public String getBody() {
+        return body;
+    }
+
+    public String getStreamedContent() {
+        return streamedContent;
+    }
+}
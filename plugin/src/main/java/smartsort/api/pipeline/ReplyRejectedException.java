@@ -0,0 +1,25 @@
+package smartsort.api.pipeline;
+
+import java.io.IOException;
+
+/**
+ * A {@link StreamListener} abandoned a reply because its content is
+ * unusable. The backend worked, so this is neither retried as a transient
+ * error nor held against the backend's health.
+ */
+public class ReplyRejectedException extends IOException {
+
+    public ReplyRejectedException() {
+        super("Reply rejected while streaming");
+    }
+
+    /**
+     * @return true if the error is, or was caused by, a rejected reply
+     */
+    public static boolean isRejection(Throwable error) {
+        for (Throwable e = error; e != null; e = e.getCause()) {
+            if (e instanceof ReplyRejectedException) return true;
+        }
+        return false;
+    }
+}
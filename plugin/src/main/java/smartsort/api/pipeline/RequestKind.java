@@ -0,0 +1,27 @@
+package smartsort.api.pipeline;
+
+/**
+ * What an AI request is for. Used for metrics, per-kind policies and
+ * queue priority.
+ */
+public enum RequestKind {
+    /** Sorting a chest, barrel or shulker box a player just opened */
+    CONTAINER_SORT(0),
+    /** Sorting a player's own inventory */
+    PLAYER_SORT(1),
+    /** Generating themed contents for /smartsort test */
+    TEST_CHEST(2);
+
+    private final int priority;
+
+    RequestKind(int priority) {
+        this.priority = priority;
+    }
+
+    /**
+     * @return Queue priority, 0 is served first
+     */
+    public int getPriority() {
+        return priority;
+    }
+}
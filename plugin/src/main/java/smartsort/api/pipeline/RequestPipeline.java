@@ -0,0 +1,454 @@
+package smartsort.api.pipeline;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import smartsort.util.DebugLogger;
+
+/**
+ * Single path every AI request takes: admission, rate limiting,
+ * dispatch, decode and delivery. Each stage is supplied by the owning
+ * service so the queueing and metrics logic here is shared by all callers.
+ * <p>
+ * Admitted requests are queued in a {@link FairRequestQueue} and sent by a
+ * dedicated dispatcher thread that sleeps until either a request arrives
+ * or the rate limiter expects a permit, then sends as many requests as the
+ * budget allows.
+ * <p>
+ * Failed attempts that are worth retrying go back to the front of the
+ * queue after a jittered backoff, as long as the request's deadline and
+ * validity check still allow it.
+ * <p>
+ * A request identical to one that is already queued or in flight is not
+ * sent again; it waits for and shares the earlier request's reply.
+ * <p>
+ * A request can be cancelled once its result can no longer be applied.
+ * If nothing else shares its reply it leaves the queue, or its HTTP call
+ * is aborted, right away.
+ */
+public class RequestPipeline {
+
+    /** Decides whether a request may enter the pipeline at all */
+    @FunctionalInterface
+    public interface Admission {
+        boolean admit(AiRequest request);
+    }
+
+    /** Grants or denies permission to dispatch right now */
+    public interface RateLimit {
+        /**
+         * @return What the permits cost, to hand to {@link #release} if the
+         * request isn't sent after all, or 0 if none are free
+         */
+        long tryAcquire(AiRequest request);
+
+        /** Return permits taken for a request that won't be sent */
+        void release(long charge);
+
+        /** How long until a permit is expected to be free, 0 if one is free now */
+        long nanosUntilNextPermit(AiRequest request);
+    }
+
+    /** Sends the request and completes with the undecoded reply */
+    @FunctionalInterface
+    public interface Dispatch {
+        CompletableFuture<RawReply> dispatch(AiRequest request);
+    }
+
+    /** Turns a raw reply into the content handed to callers ("" on failure) */
+    @FunctionalInterface
+    public interface Decode {
+        String decode(RawReply reply);
+    }
+
+    /** Runs the final completion, e.g. on the server thread */
+    @FunctionalInterface
+    public interface Delivery {
+        void deliver(AiRequest request, Runnable completion);
+    }
+
+    private final DebugLogger debug;
+    private final FairRequestQueue queue;
+    private final PipelineMetrics metrics = new PipelineMetrics();
+    private final Admission admission;
+    private final RateLimit rateLimit;
+    private final Dispatch dispatch;
+    private final Decode decode;
+    private final Delivery delivery;
+    private final Map<RequestKind, RetryPolicy> retryPolicies;
+    private final Map<String, AiRequest> inFlight =
+        new ConcurrentHashMap<>();
+    private volatile Thread dispatcher;
+    private volatile boolean running;
+
+    public RequestPipeline(
+        DebugLogger debug,
+        int queueSize,
+        int perPlayerQueueSize,
+        long promoteAfterMillis,
+        Admission admission,
+        RateLimit rateLimit,
+        Dispatch dispatch,
+        Decode decode,
+        Delivery delivery,
+        Map<RequestKind, RetryPolicy> retryPolicies
+    ) {
+        this.debug = debug;
+        this.queue = new FairRequestQueue(
+            queueSize,
+            perPlayerQueueSize,
+            TimeUnit.MILLISECONDS.toNanos(promoteAfterMillis),
+            this::displace
+        );
+        this.admission = admission;
+        this.rateLimit = rateLimit;
+        this.dispatch = dispatch;
+        this.decode = decode;
+        this.delivery = delivery;
+        this.retryPolicies = retryPolicies;
+    }
+
+    /**
+     * Submit a request to the pipeline
+     * @param request The request to run
+     * @return Future completed on delivery with the reply, or "" on failure
+     */
+    public CompletableFuture<String> submit(AiRequest request) {
+        metrics.recordSubmitted();
+
+        if (!admission.admit(request)) {
+            metrics.recordRejected();
+            finish(request, "");
+            return request.result();
+        }
+
+        if (coalesce(request)) return request.result();
+
+        RetryPolicy policy = retryPolicies.get(request.getKind());
+        if (policy != null) request.setDeadline(policy.getDeadlineNanos());
+
+        if (queue.offer(request)) {
+            metrics.recordQueued();
+            wakeDispatcher();
+        } else {
+            debug.console(
+                "[AI] Queue full for " +
+                request.getKind() +
+                ", request dropped"
+            );
+            metrics.recordDropped();
+            finish(request, "");
+        }
+        return request.result();
+    }
+
+    /**
+     * Cancel a request whose result can no longer be applied, e.g. because
+     * the player closed the chest or logged out. The request still
+     * completes, with "", unless identical requests still want the reply.
+     * @param request A request previously passed to {@link #submit}
+     */
+    public void cancel(AiRequest request) {
+        request.markCancelled();
+        AiRequest leader = inFlight.get(coalesceKey(request));
+        if (leader == null || leader.isStillWanted()) return;
+
+        if (queue.remove(leader)) {
+            debug.console("[AI] Cancelled queued " + leader.getKind());
+            metrics.recordCancelled();
+            finish(leader, "");
+            return;
+        }
+
+        // Aborts the HTTP call; the reply handler then finishes it
+        CompletableFuture<RawReply> reply = leader.getPendingReply();
+        if (reply != null) reply.cancel(false);
+    }
+
+    /**
+     * Start the dispatcher thread
+     */
+    public void start() {
+        if (running) return;
+        running = true;
+        Thread thread = new Thread(
+            this::dispatchLoop,
+            "SmartSort-AI-Dispatcher"
+        );
+        thread.setDaemon(true);
+        dispatcher = thread;
+        thread.start();
+    }
+
+    /**
+     * Stop the dispatcher thread and fail every queued request. Requests
+     * still in flight or waiting to retry complete with "" on their own
+     * thread when they finish, without going through the delivery.
+     */
+    public void shutdown() {
+        running = false;
+        Thread thread = dispatcher;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+            try {
+                thread.join(TimeUnit.SECONDS.toMillis(1));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        dispatcher = null;
+
+        AiRequest request;
+        while ((request = queue.poll()) != null) {
+            metrics.recordCancelled();
+            finish(request, "");
+        }
+    }
+
+    public PipelineMetrics getMetrics() {
+        return metrics;
+    }
+
+    public int getQueueSize() {
+        return queue.size();
+    }
+
+    /**
+     * Wake the dispatcher early, e.g. when a request is queued or the rate
+     * limiter gained permits sooner than predicted
+     */
+    public void wakeDispatcher() {
+        Thread thread = dispatcher;
+        if (thread != null) LockSupport.unpark(thread);
+    }
+
+    private void dispatchLoop() {
+        while (running) {
+            AiRequest next = queue.peek();
+            if (next == null) {
+                LockSupport.park(this);
+                continue;
+            }
+
+            if (!next.isStillWanted()) {
+                // Don't spend a permit on a result nobody can use
+                if (queue.remove(next)) expire(next);
+                continue;
+            }
+
+            long waitNanos = rateLimit.nanosUntilNextPermit(next);
+            if (waitNanos > 0) {
+                LockSupport.parkNanos(this, waitNanos);
+                continue;
+            }
+
+            long charge = rateLimit.tryAcquire(next);
+            if (charge == 0) {
+                // Prediction was off; back off briefly and re-check
+                LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(1));
+                continue;
+            }
+
+            // It may have been displaced while waiting for the permit
+            if (!queue.remove(next)) {
+                rateLimit.release(charge);
+                continue;
+            }
+            try {
+                dispatch(next);
+            } catch (Exception e) {
+                debug.console("[AI] Dispatcher error: " + e.getMessage());
+            }
+        }
+    }
+
+    private void dispatch(AiRequest request) {
+        request.markDispatched();
+
+        CompletableFuture<RawReply> reply;
+        try {
+            reply = dispatch.dispatch(request);
+        } catch (Exception e) {
+            reply = CompletableFuture.failedFuture(e);
+        }
+        request.setPendingReply(reply);
+        // Cancelled between leaving the queue and getting here
+        if (!request.isStillWanted()) reply.cancel(false);
+
+        // Decode on whichever thread completed the reply, never the tick thread
+        reply.whenComplete((raw, error) -> {
+            request.markReceived();
+            request.setPendingReply(null);
+            if (shouldRetry(request, raw, error)) {
+                scheduleRetry(request);
+                return;
+            }
+
+            String content = "";
+            if (error instanceof CancellationException) {
+                debug.console("[AI] Cancelled in-flight " + request.getKind());
+                metrics.recordCancelled();
+            } else if (ReplyRejectedException.isRejection(error)) {
+                debug.console("[AI] Unusable " + request.getKind() + " reply");
+            } else if (error != null) {
+                debug.console("[AI] Call failed: " + error.getMessage());
+            } else {
+                content = decode.decode(raw);
+            }
+            request.markDecoded();
+            finish(request, content);
+        });
+    }
+
+    private boolean shouldRetry(
+        AiRequest request,
+        RawReply raw,
+        Throwable error
+    ) {
+        if (!running) return false;
+        // Asking again won't fix what the model said
+        if (ReplyRejectedException.isRejection(error)) return false;
+        boolean retryable =
+            error != null || RetryPolicy.isRetryableStatus(raw.getCode());
+        if (!retryable) return false;
+
+        RetryPolicy policy = retryPolicies.get(request.getKind());
+        return (
+            policy != null &&
+            request.getAttempts() < policy.getMaxAttempts() &&
+            request.isStillWanted()
+        );
+    }
+
+    private void scheduleRetry(AiRequest request) {
+        RetryPolicy policy = retryPolicies.get(request.getKind());
+        long backoff = policy.backoffNanos(request.getAttempts());
+        if (backoff >= request.nanosUntilDeadline()) {
+            expire(request);
+            return;
+        }
+
+        metrics.recordRetried();
+        debug.console(
+            "[AI] Retrying " +
+            request.getKind() +
+            " (attempt " +
+            (request.getAttempts() + 1) +
+            "/" +
+            policy.getMaxAttempts() +
+            ") in " +
+            millis(backoff) +
+            "ms"
+        );
+        CompletableFuture.delayedExecutor(
+            backoff,
+            TimeUnit.NANOSECONDS
+        ).execute(() -> {
+            // Same request object, so a retry can never complete twice
+            if (running && request.isStillWanted()) {
+                queue.requeue(request);
+                wakeDispatcher();
+            } else {
+                expire(request);
+            }
+        });
+    }
+
+    /**
+     * Attach the request to an identical one that is already queued or in
+     * flight, otherwise register it as the one later duplicates attach to
+     * @return true if the request was attached and needs no dispatch
+     */
+    private boolean coalesce(AiRequest request) {
+        String key = coalesceKey(request);
+        while (true) {
+            AiRequest leader = inFlight.putIfAbsent(key, request);
+            if (leader == null) return false;
+            if (leader.attach(request)) {
+                metrics.recordCoalesced();
+                debug.console(
+                    "[AI] Coalesced duplicate " +
+                    request.getKind() +
+                    " request with one already in flight"
+                );
+                return true;
+            }
+            // Leader is being delivered; replace it
+            inFlight.remove(key, leader);
+        }
+    }
+
+    private void displace(AiRequest request) {
+        debug.console(
+            "[AI] Queue full, dropped a queued " +
+            request.getKind() +
+            " request from a player with many waiting"
+        );
+        metrics.recordDropped();
+        finish(request, "");
+    }
+
+    private void expire(AiRequest request) {
+        debug.console(
+            "[AI] " + request.getKind() + " request expired before completion"
+        );
+        metrics.recordExpired();
+        finish(request, "");
+    }
+
+    private void finish(AiRequest request, String content) {
+        inFlight.remove(coalesceKey(request), request);
+        List<AiRequest> followers = request.closeFollowers();
+        Runnable completion = () -> {
+            request.markDelivered();
+            metrics.recordDelivered(request, !content.isEmpty());
+            if (request.getDecodedAt() != 0) {
+                debug.console(
+                    "[AI] " +
+                    request.getKind() +
+                    " timings: queue=" +
+                    millis(request.getDispatchedAt() - request.getCreatedAt()) +
+                    "ms http=" +
+                    millis(request.getReceivedAt() - request.getDispatchedAt()) +
+                    "ms decode=" +
+                    millis(request.getDecodedAt() - request.getReceivedAt()) +
+                    "ms deliver=" +
+                    millis(request.getDeliveredAt() - request.getDecodedAt()) +
+                    "ms"
+                );
+            }
+            request.result().complete(content);
+            for (AiRequest follower : followers) {
+                if (request.isAnsweredLocally()) follower.markAnsweredLocally();
+                follower.markDelivered();
+                metrics.recordDelivered(follower, !content.isEmpty());
+                follower.result().complete(content);
+            }
+        };
+        if (running) {
+            delivery.deliver(request, completion);
+        } else {
+            // The delivery thread may be gone, e.g. the plugin is disabled;
+            // late replies and retries still have to complete their futures
+            completion.run();
+        }
+    }
+
+    private static long millis(long nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+
+    /**
+     * Key covering everything that determines the reply to a request
+     */
+    private static String coalesceKey(AiRequest request) {
+        String model = request.getForcedModel() != null
+            ? request.getForcedModel()
+            : "#" + request.getItemCount();
+        return request.getKind() + "|" + model + "|" + request.getPrompt();
+    }
+}
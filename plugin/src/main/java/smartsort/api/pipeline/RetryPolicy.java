@@ -0,0 +1,86 @@
+package smartsort.api.pipeline;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.bukkit.configuration.ConfigurationSection;
+
+/**
+ * Retry settings for one {@link RequestKind}: exponential backoff with
+ * jitter, capped by an overall deadline measured from submission.
+ */
+public class RetryPolicy {
+
+    private final int maxAttempts;
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+    private final long deadlineMillis;
+
+    /**
+     * @param maxAttempts Total attempts including the first one
+     * @param baseDelayMillis Backoff before the first retry
+     * @param maxDelayMillis Upper bound for a single backoff
+     * @param deadlineMillis Give up this long after the request was submitted
+     */
+    public RetryPolicy(
+        int maxAttempts,
+        long baseDelayMillis,
+        long maxDelayMillis,
+        long deadlineMillis
+    ) {
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.baseDelayMillis = Math.max(1, baseDelayMillis);
+        this.maxDelayMillis = Math.max(this.baseDelayMillis, maxDelayMillis);
+        this.deadlineMillis = deadlineMillis;
+    }
+
+    /**
+     * Reads a policy from a config section, falling back to the defaults
+     * for missing keys or a missing section
+     */
+    public static RetryPolicy fromConfig(
+        ConfigurationSection section,
+        RetryPolicy defaults
+    ) {
+        if (section == null) return defaults;
+        return new RetryPolicy(
+            section.getInt("max_attempts", defaults.maxAttempts),
+            section.getLong("base_delay_millis", defaults.baseDelayMillis),
+            section.getLong("max_delay_millis", defaults.maxDelayMillis),
+            TimeUnit.SECONDS.toMillis(
+                section.getLong(
+                    "deadline_seconds",
+                    TimeUnit.MILLISECONDS.toSeconds(defaults.deadlineMillis)
+                )
+            )
+        );
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    public long getDeadlineNanos() {
+        return TimeUnit.MILLISECONDS.toNanos(deadlineMillis);
+    }
+
+    /**
+     * Backoff before the given retry, with half of it randomized so
+     * requests that failed together don't retry together
+     * @param retry 1 for the first retry, 2 for the second, ...
+     */
+    public long backoffNanos(int retry) {
+        long ceiling = baseDelayMillis << Math.min(retry - 1, 20);
+        long delay = Math.min(maxDelayMillis, ceiling);
+        long half = delay / 2;
+        long jittered = half + ThreadLocalRandom.current().nextLong(half + 1);
+        return TimeUnit.MILLISECONDS.toNanos(jittered);
+    }
+
+    /**
+     * Whether an HTTP status is worth retrying: timeouts, rate limits and
+     * server errors. Client errors such as a bad key are not.
+     */
+    public static boolean isRetryableStatus(int code) {
+        return code == 408 || code == 429 || code >= 500;
+    }
+}
@@ -0,0 +1,19 @@
+package smartsort.api.pipeline;
+
+/**
+ * Receives reply text line by line while a streamed reply is still coming
+ * in. Called from an HTTP thread, one attempt at a time.
+ */
+public interface StreamListener {
+    /**
+     * A new attempt started streaming; forget lines from earlier attempts
+     */
+    void onStart();
+
+    /**
+     * A complete line of reply text
+     * @return false to abandon this attempt, e.g. because the reply is
+     * already known to be unusable
+     */
+    boolean onLine(String line);
+}
@@ -10,10 +10,12 @@ import smartsort.SmartSortPlugin;
 import smartsort.api.openai.OpenAIService;
 import smartsort.players.PlayerInventorySorter;
 import smartsort.util.DebugLogger;
+import smartsort.util.VersionedCache;
 
 public class SmartSortCommand {
 
     private final SmartSortPlugin plugin;
+    private final OpenAIService ai;
     private final DebugLogger debug;
     private final TestChestCommand testChestHandler;
     private final PlayerInventorySorter playerInventoryService;
@@ -25,6 +27,7 @@ public class SmartSortCommand {
         PlayerInventorySorter playerInventoryService
     ) {
         this.plugin = plugin;
+        this.ai = ai;
         this.debug = dbg;
         this.testChestHandler = new TestChestCommand(plugin, ai, dbg);
         this.playerInventoryService = playerInventoryService;
@@ -54,7 +57,8 @@ public class SmartSortCommand {
                 "help",
                 "playerinv",
                 "fastmode",
-                "now"
+                "now",
+                "stats"
             );
             String input = args[0].toLowerCase();
             options.forEach(opt -> {
@@ -86,6 +90,7 @@ public class SmartSortCommand {
             §e/smartsort playerinv §7- Toggle hopper button for sorting
             §e/smartsort fastmode §7- Toggle fast inventory sort cooldown §8(admin)
             §e/smartsort now §7- Sort inventory immediately §8(bypasses cooldown)
+            §e/smartsort stats §7- Show AI request statistics §8(admin)
             §e/smartsort help §7- Show this help
             """
         );
@@ -194,6 +199,17 @@ public class SmartSortCommand {
                 }
                 playerInventoryService.forcePlayerInventorySort(p);
                 return true;
+            case "stats":
+                if (!s.hasPermission("smartsort.admin")) {
+                    s.sendMessage("§cNo permission");
+                    return true;
+                }
+                ai.getStats().forEach(line -> s.sendMessage("§7" + line));
+                VersionedCache<?, ?> cache = plugin.getService(
+                    VersionedCache.class
+                );
+                if (cache != null) s.sendMessage("§7" + cache.getStats());
+                return true;
             default:
                 s.sendMessage("§cUnknown command. Use /smartsort help");
                 return true;
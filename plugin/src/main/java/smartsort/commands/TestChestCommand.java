@@ -14,6 +14,8 @@ import org.bukkit.inventory.Inventory;
 import org.bukkit.inventory.ItemStack;
 import smartsort.SmartSortPlugin;
 import smartsort.api.openai.OpenAIService;
+import smartsort.api.pipeline.AiRequest;
+import smartsort.api.pipeline.RequestKind;
 import smartsort.util.DebugLogger;
 
 public class TestChestCommand {
@@ -148,7 +150,14 @@ public class TestChestCommand {
         );
 
         ai
-            .chat(prompt)
+            .submit(
+                new AiRequest(
+                    RequestKind.TEST_CHEST,
+                    p.getUniqueId(),
+                    prompt,
+                    0
+                )
+            )
             .thenAccept(reply ->
                 Bukkit.getScheduler()
                     .runTask(plugin, () -> {
@@ -2,10 +2,10 @@ package smartsort.containers;
 
 import java.util.ArrayList;
 import java.util.List;
-import org.bukkit.Location;
 import org.bukkit.Material;
 import org.bukkit.inventory.Inventory;
 import org.bukkit.inventory.ItemStack;
+import smartsort.util.ContainerKey;
 import smartsort.util.DebugLogger;
 
 /**
@@ -34,42 +34,15 @@ public class ContainerExtractor {
             }
         }
 
-        Location location = inventory.getLocation();
-        String locationString = location != null
-            ? location.getWorld().getName() +
-            ":" +
-            location.getBlockX() +
-            ":" +
-            location.getBlockY() +
-            ":" +
-            location.getBlockZ()
-            : "unknown";
-
-        debug.console(
-            "[ContainerExtractor] Extracted " +
-            items.size() +
-            " items from container at " +
-            locationString
-        );
+        if (debug.isEnabled()) {
+            debug.console(
+                "[ContainerExtractor] Extracted " +
+                items.size() +
+                " items from container at " +
+                ContainerKey.describe(ContainerKey.of(inventory))
+            );
+        }
 
         return items;
     }
-
-    /**
-     * Get a container key from its location
-     */
-    public String getContainerKey(Inventory inventory) {
-        if (inventory == null || inventory.getLocation() == null) return null;
-
-        Location loc = inventory.getLocation();
-        return (
-            loc.getWorld().getName() +
-            ":" +
-            loc.getBlockX() +
-            ":" +
-            loc.getBlockY() +
-            ":" +
-            loc.getBlockZ()
-        );
-    }
 }
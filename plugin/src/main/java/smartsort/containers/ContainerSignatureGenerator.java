@@ -1,59 +1,103 @@
 package smartsort.containers;
 
-import java.util.Comparator;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 import org.bukkit.Material;
 import org.bukkit.inventory.Inventory;
 import org.bukkit.inventory.ItemStack;
 
+/**
+ * Fingerprints container contents: which materials it holds and how many
+ * of each, regardless of slot order.
+ * <p>
+ * The signature is a 64-bit hash, the sum of one mixed term per material
+ * and total amount, so it needs no sorting and no strings. Amounts are
+ * totalled in an array indexed by material ordinal that is reused between
+ * calls, so this is not thread-safe; it is only used from the main thread.
+ * Since ordinals change between Minecraft versions, so do signatures.
+ */
 public class ContainerSignatureGenerator {
 
+    private static final Material[] MATERIALS = Material.values();
+
+    // Total amount per material ordinal, all zero between calls
+    private final int[] counts = new int[MATERIALS.length];
+    // Ordinals with a non-zero count in the current call
+    private int[] present = new int[64];
+
     /**
-     * Creates a unique signature string for an inventory based on its contents.
-     * The signature represents all item types and their quantities in a deterministic order.
+     * Creates a signature for an inventory based on its contents.
+     * Inventories with the same materials in the same total amounts get the
+     * same signature.
      *
      * @param inv The inventory to analyze
-     * @return A string signature of the inventory contents
+     * @return A 64-bit signature of the inventory contents, 0 if empty
+     */
+    public long createInventorySignature(Inventory inv) {
+        if (inv == null) return 0;
+
+        int distinct = tally(inv);
+
+        long signature = 0;
+        for (int i = 0; i < distinct; i++) {
+            int ordinal = present[i];
+            signature += term(ordinal, counts[ordinal]);
+            counts[ordinal] = 0;
+        }
+        return signature;
+    }
+
+    /**
+     * Readable form of the contents, like "12xSTONE,3xDIRT", for debug
+     * output only
      */
-    public String createInventorySignature(Inventory inv) {
+    public String describeInventory(Inventory inv) {
         if (inv == null) return "";
 
-        // Create a map of material to total amount
-        Map<Material, Integer> materialCounts = new HashMap<>();
+        int distinct = tally(inv);
 
-        // Process all non-empty inventory slots
-        for (ItemStack item : inv.getContents()) {
-            if (item != null && item.getType() != Material.AIR) {
-                materialCounts.merge(
-                    item.getType(),
-                    item.getAmount(),
-                    Integer::sum
-                );
-            }
+        StringBuilder description = new StringBuilder();
+        Arrays.sort(present, 0, distinct);
+        for (int i = 0; i < distinct; i++) {
+            int ordinal = present[i];
+            if (i > 0) description.append(',');
+            description
+                .append(counts[ordinal])
+                .append('x')
+                .append(MATERIALS[ordinal].name());
+            counts[ordinal] = 0;
         }
+        return description.toString();
+    }
 
-        // Build signature string with consistent ordering
-        StringBuilder signature = new StringBuilder();
-        materialCounts
-            .entrySet()
-            .stream()
-            .sorted(
-                Map.Entry.comparingByKey(Comparator.comparing(Material::name))
-            )
-            .forEach(entry ->
-                signature
-                    .append(entry.getValue())
-                    .append("x")
-                    .append(entry.getKey().name())
-                    .append(",")
-            );
-
-        // Remove trailing comma if present
-        if (signature.length() > 0) {
-            signature.setLength(signature.length() - 1);
+    /**
+     * Total the inventory's amounts into counts
+     * @return Number of distinct materials, listed at the start of present
+     */
+    private int tally(Inventory inv) {
+        int distinct = 0;
+        for (ItemStack item : inv.getContents()) {
+            if (item == null || item.getType() == Material.AIR) continue;
+            int ordinal = item.getType().ordinal();
+            if (counts[ordinal] == 0) {
+                if (distinct == present.length) {
+                    present = Arrays.copyOf(present, distinct * 2);
+                }
+                present[distinct++] = ordinal;
+            }
+            counts[ordinal] += item.getAmount();
         }
+        return distinct;
+    }
 
-        return signature.toString();
+    /**
+     * One material's share of a signature; a signature is the sum of the
+     * terms of all materials present
+     */
+    static long term(int ordinal, int amount) {
+        // SplitMix64 finalizer over (ordinal, amount)
+        long z = ((long) ordinal << 32) | (amount & 0xFFFFFFFFL);
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
     }
 }
@@ -0,0 +1,284 @@
+package smartsort.containers;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.bukkit.Bukkit;
+import org.bukkit.Material;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.inventory.InventoryClickEvent;
+import org.bukkit.event.inventory.InventoryDragEvent;
+import org.bukkit.event.inventory.InventoryMoveItemEvent;
+import org.bukkit.event.inventory.InventoryPickupItemEvent;
+import org.bukkit.inventory.Inventory;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.scheduler.BukkitTask;
+import smartsort.SmartSortPlugin;
+import smartsort.util.ContainerKey;
+import smartsort.util.LongHashMap;
+
+/**
+ * Keeps the content signature of recently opened containers up to date
+ * from inventory events, so checking whether a container changed since it
+ * was last sorted doesn't mean reading every slot.
+ * <p>
+ * Inventory events fire before the change is made and may not go through
+ * in full, e.g. a hopper moving into a full chest. So hopper transfers and
+ * pickups aren't applied from the event; the tick after, only the moved
+ * material is counted again and its share of the signature replaced,
+ * which keeps constantly fed storage current without a recount per open.
+ * Player clicks and drags can change any slot, so they mark the container
+ * for a full recount the next time its signature is needed. Changes that
+ * fire no event at all, e.g. from other plugins or with hopper move events
+ * disabled, are caught up with whenever the sorter actually sorts, since
+ * that reads the contents anyway.
+ * <p>
+ * Holds a bounded number of containers; when full, the least recently
+ * used is dropped. Only used from the main thread.
+ */
+public class ContainerSignatureTracker implements Listener {
+
+    private static final int MAX_TRACKED = 1024;
+
+    private final SmartSortPlugin plugin;
+    private final LongHashMap<Contents> tracked = new LongHashMap<>(
+        MAX_TRACKED
+    );
+    // Ticks up on every use, to find the least recently used container
+    private long useClock;
+    // Containers with hopper moves to count once the moves are done
+    private final List<Contents> moved = new ArrayList<>();
+    private BukkitTask recountTask;
+
+    public ContainerSignatureTracker(SmartSortPlugin plugin) {
+        this.plugin = plugin;
+    }
+
+    /**
+     * Signature of a container's contents, as
+     * {@link ContainerSignatureGenerator#createInventorySignature} would
+     * compute it. Starts tracking the container.
+     */
+    public long signatureOf(long containerKey, Inventory inventory) {
+        Contents contents = track(containerKey);
+        if (contents.dirty) {
+            contents.size = inventory.getSize();
+            contents.recount(Arrays.asList(inventory.getContents()));
+        } else if (contents.movedCount > 0) {
+            // Moved earlier this tick; don't wait for the scheduled count
+            contents.recountMoved();
+        }
+        return contents.signature;
+    }
+
+    /**
+     * Recount a container from items just read from it
+     * @return The exact signature of the items
+     */
+    public long resync(long containerKey, List<ItemStack> items) {
+        Contents contents = track(containerKey);
+        contents.recount(items);
+        return contents.signature;
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onMoveItem(InventoryMoveItemEvent event) {
+        Material material = event.getItem().getType();
+        recountLater(event.getSource(), material);
+        recountLater(event.getDestination(), material);
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onPickupItem(InventoryPickupItemEvent event) {
+        // The hopper may take only part of the stack
+        recountLater(
+            event.getInventory(),
+            event.getItem().getItemStack().getType()
+        );
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onClick(InventoryClickEvent event) {
+        markDirty(event.getInventory());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onDrag(InventoryDragEvent event) {
+        markDirty(event.getInventory());
+    }
+
+    private void markDirty(Inventory inventory) {
+        if (tracked.isEmpty()) return;
+        Contents contents = lookup(inventory);
+        if (contents != null) contents.dirty = true;
+    }
+
+    /**
+     * Count a material in a container again on the next tick, after the
+     * move that is about to happen
+     */
+    private void recountLater(Inventory inventory, Material material) {
+        if (tracked.isEmpty()) return;
+        Contents contents = lookup(inventory);
+        // A dirty container is counted in full when next needed anyway
+        if (contents == null || contents.dirty) return;
+        if (inventory.getSize() != contents.size) {
+            // E.g. one half of a double chest tracked as a whole
+            contents.dirty = true;
+            return;
+        }
+
+        if (contents.movedCount == 0) {
+            contents.inventory = inventory;
+            moved.add(contents);
+        }
+        contents.addMoved((short) material.ordinal());
+        if (recountTask == null) {
+            recountTask = Bukkit.getScheduler()
+                .runTask(plugin, this::recountMoved);
+        }
+    }
+
+    private void recountMoved() {
+        recountTask = null;
+        for (Contents contents : moved) {
+            if (!contents.dirty && contents.movedCount > 0) {
+                contents.recountMoved();
+            }
+            contents.movedCount = 0;
+            contents.inventory = null;
+        }
+        moved.clear();
+    }
+
+    private Contents lookup(Inventory inventory) {
+        long containerKey = ContainerKey.of(inventory);
+        return containerKey != ContainerKey.NONE
+            ? tracked.get(containerKey)
+            : null;
+    }
+
+    private Contents track(long containerKey) {
+        Contents contents = tracked.get(containerKey);
+        if (contents == null) {
+            if (tracked.size() >= MAX_TRACKED) evictLeastRecentlyUsed();
+            contents = new Contents();
+            contents.dirty = true;
+            tracked.put(containerKey, contents);
+        }
+        contents.lastUsed = ++useClock;
+        return contents;
+    }
+
+    private void evictLeastRecentlyUsed() {
+        long[] oldest = { 0, Long.MAX_VALUE };
+        tracked.forEach((key, contents) -> {
+            if (contents.lastUsed < oldest[1]) {
+                oldest[0] = key;
+                oldest[1] = contents.lastUsed;
+            }
+        });
+        tracked.remove(oldest[0]);
+    }
+
+    /**
+     * Amount per material, as parallel arrays, and their signature
+     */
+    private static class Contents {
+
+        short[] ordinals = new short[8];
+        int[] amounts = new int[8];
+        int count;
+        long signature;
+        boolean dirty;
+        long lastUsed;
+        // Slots when last counted from the inventory, 0 if unknown
+        int size;
+        // Materials moved this tick, and the inventory to count them in
+        short[] movedOrdinals = new short[4];
+        int movedCount;
+        Inventory inventory;
+
+        void recount(Iterable<ItemStack> items) {
+            count = 0;
+            signature = 0;
+            dirty = false;
+            for (ItemStack item : items) {
+                if (item != null && item.getType() != Material.AIR) add(item);
+            }
+        }
+
+        void addMoved(short ordinal) {
+            for (int i = 0; i < movedCount; i++) {
+                if (movedOrdinals[i] == ordinal) return;
+            }
+            if (movedCount == movedOrdinals.length) {
+                movedOrdinals = Arrays.copyOf(movedOrdinals, movedCount * 2);
+            }
+            movedOrdinals[movedCount++] = ordinal;
+        }
+
+        /**
+         * Count the moved materials in the inventory in one pass and swap
+         * their terms in the signature; other materials are left alone
+         */
+        void recountMoved() {
+            int[] totals = new int[movedCount];
+            for (ItemStack item : inventory.getContents()) {
+                if (item == null) continue;
+                short ordinal = (short) item.getType().ordinal();
+                for (int i = 0; i < movedCount; i++) {
+                    if (movedOrdinals[i] == ordinal) {
+                        totals[i] += item.getAmount();
+                        break;
+                    }
+                }
+            }
+            for (int i = 0; i < movedCount; i++) {
+                set(movedOrdinals[i], totals[i]);
+            }
+            movedCount = 0;
+        }
+
+        private void add(ItemStack item) {
+            short ordinal = (short) item.getType().ordinal();
+            int index = indexOf(ordinal);
+            set(index, ordinal, amounts[index] + item.getAmount());
+        }
+
+        private void set(short ordinal, int amount) {
+            set(indexOf(ordinal), ordinal, amount);
+        }
+
+        private void set(int index, short ordinal, int after) {
+            int before = amounts[index];
+            if (before > 0) {
+                signature -= ContainerSignatureGenerator.term(ordinal, before);
+            }
+            if (after > 0) {
+                signature += ContainerSignatureGenerator.term(ordinal, after);
+            }
+            amounts[index] = after;
+        }
+
+        /**
+         * @return Index of the material, added with amount 0 if missing
+         */
+        private int indexOf(short ordinal) {
+            int index = 0;
+            while (index < count && ordinals[index] != ordinal) index++;
+            if (index == count) {
+                if (count == ordinals.length) {
+                    ordinals = Arrays.copyOf(ordinals, count * 2);
+                    amounts = Arrays.copyOf(amounts, count * 2);
+                }
+                ordinals[index] = ordinal;
+                amounts[index] = 0;
+                count++;
+            }
+            return index;
+        }
+    }
+}
@@ -1,9 +1,7 @@
 package smartsort.containers;
 
-import java.util.LinkedHashMap;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
-import java.util.UUID;
 import net.kyori.adventure.text.Component;
 import net.kyori.adventure.text.format.NamedTextColor;
 import org.bukkit.Material;
@@ -21,6 +19,7 @@ public class ContainerSortApplier {
 
     private final DebugLogger debug;
     private final TickSoundManager tickSound;
+    private int[] newestByMaterial;
 
     public ContainerSortApplier(DebugLogger debug, TickSoundManager tickSound) {
         this.debug = debug;
@@ -28,15 +27,23 @@ public class ContainerSortApplier {
     }
 
     /**
-     * Applies sorted items to an inventory with intelligent stacking
+     * Applies sorted items to an inventory with intelligent stacking.
+     * Only slots whose contents actually change are written, so a
+     * container that is already mostly in order costs a few slot updates
+     * instead of a full rewrite.
      */
     public boolean applySortedItems(
         Inventory inv,
         List<ItemStack> sorted,
         Player player
     ) {
+        StackLayout layout = mergeStacks(sorted);
+        ItemStack[] stacks = layout.stacks;
+        int[] amounts = layout.amounts;
+        int count = layout.count;
+
         // Verify inventory has enough space
-        if (sorted.size() > inv.getSize()) {
+        if (count > inv.getSize()) {
             tickSound.stop(player);
             player.sendMessage(
                 Component.text("Too many item stacks to sort - aborting").color(
@@ -49,49 +56,20 @@ public class ContainerSortApplier {
             return false;
         }
 
-        // Clear and apply sorted items
-        inv.clear();
-
-        // Apply sorted items with stacking
-        Map<String, ItemStack> stackMap = new LinkedHashMap<>();
-
-        for (ItemStack item : sorted) {
-            if (item == null || item.getType() == Material.AIR) continue;
-
-            // Create key based on material and metadata
-            String key = item.getType().toString();
-            if (item.hasItemMeta()) key += ":" + item.getItemMeta().hashCode();
-
-            if (stackMap.containsKey(key)) {
-                ItemStack existing = stackMap.get(key);
-                int maxSize = existing.getType().getMaxStackSize();
-
-                if (existing.getAmount() < maxSize) {
-                    int canAdd = maxSize - existing.getAmount();
-                    int toAdd = Math.min(canAdd, item.getAmount());
-
-                    existing.setAmount(existing.getAmount() + toAdd);
-
-                    if (toAdd < item.getAmount()) {
-                        ItemStack remainder = item.clone();
-                        remainder.setAmount(item.getAmount() - toAdd);
-                        // Create a new unique key for the remainder
-                        stackMap.put(key + ":" + UUID.randomUUID(), remainder);
-                    }
-                } else {
-                    // Stack is full, create new one with unique key
-                    stackMap.put(key + ":" + UUID.randomUUID(), item);
-                }
-            } else {
-                stackMap.put(key, item);
-            }
-        }
-
-        // Place stacked items in inventory
-        int slot = 0;
-        for (ItemStack item : stackMap.values()) {
-            if (slot < inv.getSize()) {
-                inv.setItem(slot++, item);
+        // Write only the slots that differ from the target layout
+        ItemStack[] current = inv.getContents();
+        int changed = 0;
+        for (int slot = 0; slot < inv.getSize(); slot++) {
+            ItemStack existing = slot < current.length ? current[slot] : null;
+            if (slot < count) {
+                if (isSame(existing, stacks[slot], amounts[slot])) continue;
+                ItemStack target = stacks[slot].clone();
+                target.setAmount(amounts[slot]);
+                inv.setItem(slot, target);
+                changed++;
+            } else if (existing != null && existing.getType() != Material.AIR) {
+                inv.setItem(slot, null);
+                changed++;
             }
         }
 
@@ -106,10 +84,105 @@ public class ContainerSortApplier {
 
         debug.console(
             "[ContainerApplier] Successfully applied " +
-            stackMap.size() +
-            " item stacks to container"
+            count +
+            " item stacks to container (" +
+            changed +
+            " slots changed)"
         );
 
         return true;
     }
+
+    /**
+     * Merge similar items (same material and metadata) into full stacks,
+     * keeping the order in which each stack is first started.
+     * <p>
+     * Stacks are chained per material ordinal, so an item is only compared
+     * with stacks of its own material, newest first. Output arrays are
+     * sized up front for the worst case; nothing else is allocated per
+     * item.
+     */
+    StackLayout mergeStacks(List<ItemStack> sorted) {
+        int capacity = 0;
+        for (ItemStack item : sorted) {
+            if (item == null || item.getType() == Material.AIR) continue;
+            int maxSize = Math.max(1, item.getMaxStackSize());
+            capacity += (item.getAmount() + maxSize - 1) / maxSize;
+        }
+
+        StackLayout layout = new StackLayout(capacity);
+        // Previous stack of the same material, -1 at the end of a chain
+        int[] previousSame = new int[capacity];
+        int[] newest = newestByMaterial();
+        try {
+            for (ItemStack item : sorted) {
+                if (item == null || item.getType() == Material.AIR) continue;
+
+                int ordinal = item.getType().ordinal();
+                int remaining = item.getAmount();
+                int maxSize = Math.max(1, item.getMaxStackSize());
+                // Top up the newest open stack of the same item first
+                for (int i = newest[ordinal]; i >= 0; i = previousSame[i]) {
+                    int room = maxSize - layout.amounts[i];
+                    if (room > 0 && layout.stacks[i].isSimilar(item)) {
+                        int toAdd = Math.min(room, remaining);
+                        layout.amounts[i] += toAdd;
+                        remaining -= toAdd;
+                        break;
+                    }
+                }
+                while (remaining > 0) {
+                    int i = layout.count++;
+                    layout.stacks[i] = item;
+                    layout.amounts[i] = Math.min(maxSize, remaining);
+                    remaining -= layout.amounts[i];
+                    previousSame[i] = newest[ordinal];
+                    newest[ordinal] = i;
+                }
+            }
+        } finally {
+            // Leave the shared table empty for the next call
+            for (int i = 0; i < layout.count; i++) {
+                newest[layout.stacks[i].getType().ordinal()] = -1;
+            }
+        }
+        return layout;
+    }
+
+    /**
+     * Newest stack index per material ordinal, -1 for none. Reused between
+     * calls; only used from the main thread.
+     */
+    private int[] newestByMaterial() {
+        if (newestByMaterial == null) {
+            newestByMaterial = new int[Material.values().length];
+            Arrays.fill(newestByMaterial, -1);
+        }
+        return newestByMaterial;
+    }
+
+    /** Target stacks in slot order; stacks[i] holds amounts[i] items */
+    static class StackLayout {
+
+        final ItemStack[] stacks;
+        final int[] amounts;
+        int count;
+
+        StackLayout(int capacity) {
+            this.stacks = new ItemStack[capacity];
+            this.amounts = new int[capacity];
+        }
+    }
+
+    private static boolean isSame(
+        ItemStack existing,
+        ItemStack item,
+        int amount
+    ) {
+        return (
+            existing != null &&
+            existing.getAmount() == amount &&
+            existing.isSimilar(item)
+        );
+    }
 }
@@ -0,0 +1,274 @@
+package smartsort.containers;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import org.bukkit.Bukkit;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.scheduler.BukkitTask;
+import smartsort.SmartSortPlugin;
+import smartsort.api.openai.OpenAIPromptBuilder;
+import smartsort.api.openai.OpenAIResponseParser;
+import smartsort.api.openai.OpenAIService;
+import smartsort.api.pipeline.AiRequest;
+import smartsort.api.pipeline.RequestKind;
+import smartsort.api.pipeline.StreamListener;
+import smartsort.util.DebugLogger;
+
+/**
+ * Collects container sorts requested within a short window and sends them
+ * as one AI request with a labelled section per container, so the RULES
+ * preamble and the rate limit permit are paid once per batch instead of
+ * once per chest. Containers with identical contents share a section.
+ * Sorts of different players share a batch too; the batch is charged to
+ * every player with a sort in it, so each still counts against their own
+ * share of the request queue.
+ * <p>
+ * Each caller still gets its own reply text, cut out of the batch reply.
+ * Only used from the main thread.
+ */
+public class ContainerSortBatcher {
+
+    private final SmartSortPlugin plugin;
+    private final OpenAIService ai;
+    private final OpenAIPromptBuilder promptBuilder;
+    private final DebugLogger debug;
+    private final long windowTicks;
+    private final int maxBatchSize;
+
+    private final List<Section> pending = new ArrayList<>();
+    // Section request -> its section, while its batch is in flight
+    private final Map<AiRequest, Section> sentIn = new HashMap<>();
+    private BukkitTask flushTask;
+
+    /**
+     * @param windowMillis How long to wait for more sorts, 0 disables batching
+     * @param maxBatchSize Send as soon as this many sorts are waiting
+     */
+    public ContainerSortBatcher(
+        SmartSortPlugin plugin,
+        OpenAIService ai,
+        OpenAIPromptBuilder promptBuilder,
+        DebugLogger debug,
+        long windowMillis,
+        int maxBatchSize
+    ) {
+        this.plugin = plugin;
+        this.ai = ai;
+        this.promptBuilder = promptBuilder;
+        this.debug = debug;
+        this.windowTicks = windowMillis <= 0
+            ? 0
+            : Math.max(1, windowMillis / 50);
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * Submit a container sort, possibly as part of a batch
+     * @param request The request as it would be sent on its own
+     * @param items The container's items
+     * @return Future completed on the main thread with this container's
+     * part of the reply, or "" on failure
+     */
+    public CompletableFuture<String> submit(
+        AiRequest request,
+        List<ItemStack> items
+    ) {
+        if (windowTicks == 0 || maxBatchSize <= 1) return ai.submit(request);
+
+        Section section = new Section(request, items);
+        pending.add(section);
+        if (pending.size() >= maxBatchSize) {
+            flush();
+        } else if (flushTask == null) {
+            flushTask = Bukkit.getScheduler()
+                .runTaskLater(plugin, this::flush, windowTicks);
+        }
+        return section.result;
+    }
+
+    /**
+     * Cancel a sort submitted through {@link #submit}. A batch is only
+     * cancelled once none of its containers want the reply any more.
+     */
+    public void cancel(AiRequest request) {
+        for (Section waiting : pending) {
+            if (waiting.request == request) {
+                pending.remove(waiting);
+                waiting.result.complete("");
+                return;
+            }
+        }
+
+        Section section = sentIn.get(request);
+        if (section == null) {
+            // Submitted on its own
+            ai.cancel(request);
+            return;
+        }
+        section.cancelled = true;
+        if (!section.batch.isStillWanted()) ai.cancel(section.batch);
+    }
+
+    private void flush() {
+        if (flushTask != null) {
+            flushTask.cancel();
+            flushTask = null;
+        }
+        List<Section> sections = new ArrayList<>(pending);
+        pending.clear();
+        if (sections.isEmpty()) return;
+
+        if (sections.size() == 1) {
+            Section only = sections.get(0);
+            ai
+                .submit(only.request)
+                .whenComplete((reply, error) ->
+                    only.result.complete(reply != null ? reply : "")
+                );
+            return;
+        }
+
+        // Identical containers share one section of the prompt
+        Map<String, List<Section>> bySignature = new LinkedHashMap<>();
+        for (Section section : sections) {
+            bySignature
+                .computeIfAbsent(
+                    promptBuilder.createItemSignature(section.items),
+                    k -> new ArrayList<>()
+                )
+                .add(section);
+        }
+        List<List<Section>> groups = new ArrayList<>(bySignature.values());
+
+        List<List<ItemStack>> inventories = new ArrayList<>();
+        int itemCount = 0;
+        for (List<Section> group : groups) {
+            inventories.add(group.get(0).items);
+            itemCount += group.get(0).items.size();
+        }
+
+        UUID requester = sections.get(0).request.getRequester();
+        List<UUID> others = new ArrayList<>();
+        for (Section section : sections) {
+            UUID player = section.request.getRequester();
+            if (
+                player != null &&
+                !player.equals(requester) &&
+                !others.contains(player)
+            ) {
+                others.add(player);
+            }
+        }
+
+        AiRequest batch = new AiRequest(
+            RequestKind.CONTAINER_SORT,
+            requester,
+            promptBuilder.buildBatchSortingPrompt(inventories),
+            itemCount
+        );
+        batch.setCoRequesters(others);
+        batch.setValidityCheck(() -> {
+            for (Section section : sections) {
+                if (!section.cancelled && section.request.isStillWanted()) {
+                    return true;
+                }
+            }
+            return false;
+        });
+        batch.setStreamListener(new SectionRouter(groups));
+        for (Section section : sections) {
+            section.batch = batch;
+            sentIn.put(section.request, section);
+        }
+
+        debug.console(
+            "[AI] Batching " +
+            sections.size() +
+            " container sorts into one request (" +
+            groups.size() +
+            " distinct)"
+        );
+
+        ai
+            .submit(batch)
+            .whenComplete((reply, error) -> {
+                List<String> texts = OpenAIResponseParser.splitSections(
+                    reply != null ? reply : "",
+                    groups.size()
+                );
+                for (int i = 0; i < groups.size(); i++) {
+                    for (Section section : groups.get(i)) {
+                        sentIn.remove(section.request);
+                        if (batch.isAnsweredLocally()) {
+                            section.request.markAnsweredLocally();
+                        }
+                        section.result.complete(texts.get(i));
+                    }
+                }
+            });
+    }
+
+    /** One container's share of a batch */
+    private static class Section {
+
+        final AiRequest request;
+        final List<ItemStack> items;
+        final CompletableFuture<String> result = new CompletableFuture<>();
+        // The batch it was sent in, once sent
+        AiRequest batch;
+        // Set from the main thread, read by the batch's validity check
+        volatile boolean cancelled;
+
+        Section(AiRequest request, List<ItemStack> items) {
+            this.request = request;
+            this.items = items;
+        }
+    }
+
+    /**
+     * Forwards streamed lines of a batch reply to the listeners of the
+     * section they belong to, the same way splitSections cuts the reply
+     */
+    private static class SectionRouter implements StreamListener {
+
+        private final List<List<Section>> groups;
+        private List<Section> current;
+
+        SectionRouter(List<List<Section>> groups) {
+            this.groups = groups;
+        }
+
+        @Override
+        public void onStart() {
+            current = null;
+            for (List<Section> group : groups) {
+                for (Section section : group) {
+                    StreamListener listener =
+                        section.request.getStreamListener();
+                    if (listener != null) listener.onStart();
+                }
+            }
+        }
+
+        @Override
+        public boolean onLine(String line) {
+            int label = OpenAIResponseParser.sectionLabel(line, groups.size());
+            if (label > 0) {
+                current = groups.get(label - 1);
+                return true;
+            }
+            if (current == null) return true;
+            for (Section section : current) {
+                StreamListener listener = section.request.getStreamListener();
+                // One bad section must not abort the others
+                if (listener != null) listener.onLine(line);
+            }
+            return true;
+        }
+    }
+}
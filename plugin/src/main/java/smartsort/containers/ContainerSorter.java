@@ -16,11 +16,17 @@ import smartsort.SmartSortPlugin;
 import smartsort.api.openai.OpenAIPromptBuilder;
 import smartsort.api.openai.OpenAIResponseParser;
 import smartsort.api.openai.OpenAIService;
+import smartsort.api.pipeline.AiRequest;
+import smartsort.api.pipeline.RequestKind;
 import smartsort.events.inventory.InventorySortEvent;
 import smartsort.events.inventory.SortCompletedEvent;
 import smartsort.events.inventory.SortFailedEvent;
+import smartsort.sorting.LocalSortPolicy;
+import smartsort.sorting.MaterialRankLearner;
+import smartsort.util.ContainerKey;
 import smartsort.util.DebugLogger;
 import smartsort.util.InventoryChangeTracker;
+import smartsort.util.LongHashMap;
 import smartsort.util.TickSoundManager;
 import smartsort.util.VersionedCache;
 
@@ -28,8 +34,7 @@ public class ContainerSorter implements Listener {
 
     private final SmartSortPlugin plugin;
     private final int cooldownTicks;
-    private final Map<String, String> signatures = new HashMap<>();
-    private final Map<String, Long> lastSorted = new HashMap<>();
+    private final LongHashMap<LastSort> lastSorts = new LongHashMap<>();
     private final Set<Location> inProgress = new HashSet<>();
 
     private final OpenAIService ai;
@@ -37,11 +42,18 @@ public class ContainerSorter implements Listener {
     private final DebugLogger debug;
     private final OpenAIPromptBuilder promptBuilder;
     private final ContainerSignatureGenerator inventoryAnalyzer;
+    private final ContainerSignatureTracker signatureTracker;
     private final OpenAIResponseParser responseParser;
     private final InventoryChangeTracker changeTracker;
-    private final VersionedCache<String, List<ItemStack>> versionedCache;
+    private final VersionedCache<Long, SortPlan> versionedCache;
     private final ContainerExtractor containerExtractor;
     private final ContainerSortApplier containerSortApplier;
+    private final ContainerSortBatcher batcher;
+    private final LocalSortPolicy localSortPolicy;
+    private final MaterialRankLearner rankLearner;
+    private final long planGeneration;
+    private final SortPlanStore planStore;
+    private final SimilarPlanIndex similarPlans;
 
     public ContainerSorter(
         SmartSortPlugin pl,
@@ -49,9 +61,13 @@ public class ContainerSorter implements Listener {
         TickSoundManager tick,
         DebugLogger dbg,
         InventoryChangeTracker changeTracker,
-        VersionedCache<String, List<ItemStack>> versionedCache,
+        VersionedCache<Long, SortPlan> versionedCache,
         ContainerExtractor containerExtractor,
-        ContainerSortApplier containerSortApplier
+        ContainerSortApplier containerSortApplier,
+        LocalSortPolicy localSortPolicy,
+        MaterialRankLearner rankLearner,
+        SimilarPlanIndex similarPlans,
+        ContainerSignatureTracker signatureTracker
     ) {
         this.plugin = pl;
         this.ai = ai;
@@ -61,11 +77,42 @@ public class ContainerSorter implements Listener {
         this.versionedCache = versionedCache;
         this.containerExtractor = containerExtractor;
         this.containerSortApplier = containerSortApplier;
+        this.localSortPolicy = localSortPolicy;
+        this.rankLearner = rankLearner;
+        this.similarPlans = similarPlans;
+        this.signatureTracker = signatureTracker;
+        this.planGeneration = planGeneration(pl);
+        if (pl.getConfig().getBoolean("performance.plan_store.enabled", true)) {
+            this.planStore = new SortPlanStore(
+                pl,
+                dbg,
+                planGeneration,
+                pl
+                    .getConfig()
+                    .getInt("performance.plan_store.max_age_days", 14),
+                pl
+                    .getConfig()
+                    .getInt("performance.plan_store.warm_entries", 2000)
+            );
+            planStore.load(versionedCache, similarPlans);
+        } else {
+            this.planStore = null;
+        }
         this.promptBuilder = new OpenAIPromptBuilder();
         this.inventoryAnalyzer = new ContainerSignatureGenerator();
         this.responseParser = new OpenAIResponseParser(dbg);
         this.cooldownTicks =
             pl.getConfig().getInt("smart_sort.delay_seconds", 3) * 20;
+        this.batcher = new ContainerSortBatcher(
+            pl,
+            ai,
+            promptBuilder,
+            dbg,
+            pl
+                .getConfig()
+                .getLong("performance.container_batch_window_millis", 150),
+            pl.getConfig().getInt("performance.container_batch_max", 4)
+        );
     }
 
     @EventHandler
@@ -86,6 +133,24 @@ public class ContainerSorter implements Listener {
         // Skip sort for small containers if configured
         if (shouldSkipSort(inv)) return;
 
+        long containerKey = ContainerKey.of(loc);
+        long signature;
+        if (containerKey != ContainerKey.NONE) {
+            signature = signatureTracker.signatureOf(containerKey, inv);
+        } else {
+            // Fallback if location isn't available
+            containerKey = ContainerKey.ofPlayer(p.getUniqueId());
+            signature = inventoryAnalyzer.createInventorySignature(inv);
+        }
+
+        // Unchanged since it was last sorted
+        LastSort last = lastSorts.get(containerKey);
+        if (
+            last != null &&
+            last.signature == signature &&
+            System.currentTimeMillis() - last.sortedAt < cooldownTicks * 50L
+        ) return;
+
         // Use container extractor to get items
         List<ItemStack> items = containerExtractor.extractItems(inv);
         if (items.isEmpty()) return;
@@ -95,39 +160,38 @@ public class ContainerSorter implements Listener {
         Bukkit.getPluginManager().callEvent(sortEvent);
         if (sortEvent.isCancelled()) return;
 
-        // Continue with the sorting process
-        String signature = inventoryAnalyzer.createInventorySignature(inv);
-        String containerKey = containerExtractor.getContainerKey(inv);
-        if (containerKey == null) {
-            // Fallback if location isn't available
-            containerKey = p.getUniqueId().toString();
+        // Continue with the sorting process, keyed by the exact contents
+        if (ContainerKey.isBlock(containerKey)) {
+            signature = signatureTracker.resync(containerKey, items);
+        }
+        if (debug.isEnabled()) {
+            debug.console(
+                "[SORT] " +
+                ContainerKey.describe(containerKey) +
+                " holds " +
+                inventoryAnalyzer.describeInventory(inv)
+            );
         }
 
-        if (
-            signature.equals(signatures.get(containerKey)) &&
-            System.currentTimeMillis() -
-            lastSorted.getOrDefault(containerKey, 0L) <
-            cooldownTicks * 50L
-        ) return;
-
-        signatures.put(containerKey, signature);
-        lastSorted.put(containerKey, System.currentTimeMillis());
+        if (last == null) {
+            last = new LastSort();
+            lastSorts.put(containerKey, last);
+        }
+        last.signature = signature;
+        last.sortedAt = System.currentTimeMillis();
         if (loc != null) inProgress.add(loc);
 
-        // Record current timestamp for cache version check
+        // Record current timestamp for the change check after sorting
         final long sortStartTime = System.currentTimeMillis();
 
-        // Check cache first with version validation
-        List<ItemStack> cached = versionedCache.getIfCurrent(
-            signature,
-            sortStartTime
-        );
-        if (cached != null) {
-            debug.console("[CACHE] Using cached sorting for " + containerKey);
-            List<ItemStack> clonedItems = cached
-                .stream()
-                .map(ItemStack::clone)
-                .toList();
+        // Same contents sorted before under the same prompt and model
+        SortPlan plan = versionedCache.getIfCurrent(signature, planGeneration);
+        List<ItemStack> clonedItems = plan != null ? plan.apply(items) : null;
+        if (clonedItems != null) {
+            debug.console(
+                "[CACHE] Using cached sorting for " +
+                ContainerKey.describe(containerKey)
+            );
 
             boolean success = containerSortApplier.applySortedItems(
                 inv,
@@ -153,12 +217,59 @@ public class ContainerSorter implements Listener {
             return;
         }
 
+        // Nearly the same materials as a container sorted before
+        List<ItemStack> adapted = similarPlans.find(items);
+        if (adapted != null) {
+            debug.console(
+                "[CACHE] Adapted sorting of a similar container for " +
+                ContainerKey.describe(containerKey)
+            );
+            applyLocalSort(adapted, items.size(), inv, p, loc);
+            return;
+        }
+
+        List<ItemStack> local = localSortPolicy.sortLocally(items);
+        if (local != null) {
+            applyLocalSort(local, items.size(), inv, p, loc);
+            return;
+        }
+
         tick.start(p);
         callAI(containerKey, signature, sortStartTime, items, inv, p, loc);
     }
 
+    /**
+     * Finish writing stored sort plans
+     */
+    public void shutdown() {
+        if (planStore != null) planStore.shutdown();
+    }
+
     /* ---------- helpers ---------- */
 
+    /**
+     * Fingerprint of everything that shapes an AI sort: prompt version and
+     * model settings. Cached sorts from another generation are not reused.
+     */
+    private static long planGeneration(SmartSortPlugin pl) {
+        String settings = String.join(
+            "|",
+            OpenAIPromptBuilder.PROMPT_VERSION,
+            pl.getConfig().getString("backend.type", "openai"),
+            pl.getConfig().getString("backend.model", ""),
+            pl.getConfig().getString("openai.model", "gpt-4o"),
+            String.valueOf(
+                pl.getConfig().getBoolean("openai.dynamic_model", false)
+            ),
+            pl.getConfig().getString("openai.models.small", "gpt-3.5-turbo"),
+            pl.getConfig().getString("openai.models.large", "gpt-4o"),
+            String.valueOf(
+                pl.getConfig().getInt("openai.model_thresholds.small", 13)
+            )
+        );
+        return settings.hashCode();
+    }
+
     private boolean shouldSkipSort(Inventory inv) {
         return (
             plugin
@@ -168,9 +279,33 @@ public class ContainerSorter implements Listener {
         );
     }
 
+    /**
+     * Apply a local sort right away, no AI round trip
+     */
+    private void applyLocalSort(
+        List<ItemStack> sorted,
+        int itemCount,
+        Inventory inv,
+        Player p,
+        Location loc
+    ) {
+        debug.console("[SORT] Sorted " + itemCount + " items locally");
+
+        if (containerSortApplier.applySortedItems(inv, sorted, p)) {
+            Bukkit.getPluginManager()
+                .callEvent(new SortCompletedEvent(inv, p, sorted));
+        } else {
+            Bukkit.getPluginManager()
+                .callEvent(
+                    new SortFailedEvent(inv, p, "Failed to apply local sorting")
+                );
+        }
+        if (loc != null) inProgress.remove(loc);
+    }
+
     private void callAI(
-        String containerKey,
-        String signature,
+        long containerKey,
+        long signature,
         long sortStartTime,
         List<ItemStack> items,
         Inventory inv,
@@ -181,163 +316,167 @@ public class ContainerSorter implements Listener {
         String prompt = promptBuilder.buildSortingPrompt(items);
         debug.console("[AI prompt] " + prompt);
 
-        // Select model based on inventory size if enabled
-        String model = plugin.getConfig().getString("openai.model", "gpt-4o");
-        if (plugin.getConfig().getBoolean("openai.dynamic_model", false)) {
-            model = ai.selectModel(items.size());
-            debug.console(
-                "[AI] Using model " + model + " for " + items.size() + " items"
-            );
-        }
+        AiRequest request = new AiRequest(
+            RequestKind.CONTAINER_SORT,
+            p.getUniqueId(),
+            prompt,
+            items.size()
+        );
+        // Don't retry a reply the change check below would throw away
+        request.setValidityCheck(
+            () ->
+                !changeTracker.hasContainerChangedSince(
+                    containerKey,
+                    sortStartTime
+                )
+        );
+
+        // Parse lines as they stream in; bad replies are dropped early
+        OpenAIResponseParser.Session parse = responseParser.startSession(
+            items
+        );
+        request.setStreamListener(parse);
+
+        // Closing or editing the container cancels the request
+        Runnable cancel = () -> batcher.cancel(request);
+        changeTracker.watchContainer(containerKey, cancel);
+
+        batcher
+            .submit(request, items)
+            .thenAccept(reply -> {
+                changeTracker.unwatchContainer(containerKey, cancel);
+                debug.console("[AI reply]\n" + reply);
+
+                // Check if inventory changed during sorting
+                if (
+                    changeTracker.hasContainerChangedSince(
+                        containerKey,
+                        sortStartTime
+                    )
+                ) {
+                    tick.stop(p);
+                    p.sendMessage(
+                        Component.text(
+                            "Inventory changed during sorting - aborted"
+                        ).color(NamedTextColor.YELLOW)
+                    );
+                    debug.console(
+                        "[SORT] Container changed during sorting - aborted"
+                    );
 
-        ai
-            .chat(prompt, items.size())
-            .thenAcceptAsync(reply ->
-                Bukkit.getScheduler()
-                    .runTask(plugin, () -> {
-                        debug.console("[AI reply]\n" + reply);
-
-                        // Check if inventory changed during sorting
-                        if (
-                            changeTracker.hasContainerChangedSince(
-                                containerKey,
-                                sortStartTime
+                    // Fire sort failed event
+                    Bukkit.getPluginManager()
+                        .callEvent(
+                            new SortFailedEvent(
+                                inv,
+                                p,
+                                "Inventory changed during sorting"
                             )
-                        ) {
-                            tick.stop(p);
-                            p.sendMessage(
-                                Component.text(
-                                    "Inventory changed during sorting - aborted"
-                                ).color(NamedTextColor.YELLOW)
-                            );
-                            debug.console(
-                                "[SORT] Container changed during sorting - aborted"
-                            );
-
-                            // Fire sort failed event
-                            Bukkit.getPluginManager()
-                                .callEvent(
-                                    new SortFailedEvent(
-                                        inv,
-                                        p,
-                                        "Inventory changed during sorting"
-                                    )
-                                );
-
-                            if (loc != null) inProgress.remove(loc);
-                            return;
-                        }
-
-                        // Parse the AI response using our parser component
-                        List<ItemStack> sorted = parseAIResponse(reply, items);
-
-                        if (sorted.isEmpty()) {
-                            // Sorting failed - clear feedback
-                            tick.stop(p);
-                            p.playSound(
-                                p.getLocation(),
-                                Sound.ENTITY_VILLAGER_NO,
-                                0.7f,
-                                1.0f
-                            );
-                            p.sendMessage(
-                                Component.text(
-                                    "[SmartSort] Sorting failed - items unchanged"
-                                ).color(NamedTextColor.RED)
-                            );
-
-                            // Fire sort failed event
-                            Bukkit.getPluginManager()
-                                .callEvent(
-                                    new SortFailedEvent(
-                                        inv,
-                                        p,
-                                        "Empty response from AI"
-                                    )
-                                );
-
-                            if (loc != null) inProgress.remove(loc);
-                            return;
-                        }
-
-                        // Verify all items are accounted for
-                        if (!validateItemCounts(items, sorted)) {
-                            tick.stop(p);
-                            p.playSound(
-                                p.getLocation(),
-                                Sound.ENTITY_VILLAGER_NO,
-                                0.7f,
-                                1.0f
-                            );
-                            p.sendMessage(
-                                Component.text(
-                                    "[SmartSort] Item count mismatch - sorting aborted"
-                                ).color(NamedTextColor.RED)
-                            );
-                            debug.console(
-                                "[SORT ERROR] Item count mismatch - original vs sorted"
-                            );
-
-                            // Fire sort failed event
-                            Bukkit.getPluginManager()
-                                .callEvent(
-                                    new SortFailedEvent(
-                                        inv,
-                                        p,
-                                        "Item count mismatch"
-                                    )
-                                );
-
-                            if (loc != null) inProgress.remove(loc);
-                            return;
-                        }
-
-                        // Cache successful sort with version info
-                        versionedCache.put(
-                            signature,
-                            sorted.stream().map(ItemStack::clone).toList(),
-                            sortStartTime
                         );
 
-                        // Apply the sorted items using our container applier
-                        boolean success = containerSortApplier.applySortedItems(
-                            inv,
-                            sorted,
-                            p
+                    if (loc != null) inProgress.remove(loc);
+                    return;
+                }
+
+                // Parse the AI response using our parser component
+                List<ItemStack> sorted = parse.finish(reply);
+
+                if (sorted.isEmpty()) {
+                    // Sorting failed - clear feedback
+                    tick.stop(p);
+                    p.playSound(
+                        p.getLocation(),
+                        Sound.ENTITY_VILLAGER_NO,
+                        0.7f,
+                        1.0f
+                    );
+                    p.sendMessage(
+                        Component.text(
+                            "[SmartSort] Sorting failed - items unchanged"
+                        ).color(NamedTextColor.RED)
+                    );
+
+                    // Fire sort failed event
+                    Bukkit.getPluginManager()
+                        .callEvent(
+                            new SortFailedEvent(
+                                inv,
+                                p,
+                                "Empty response from AI"
+                            )
                         );
 
-                        if (success) {
-                            // Fire sort completed event
-                            Bukkit.getPluginManager()
-                                .callEvent(
-                                    new SortCompletedEvent(inv, p, sorted)
-                                );
-                            if (loc != null) inProgress.remove(loc);
-                        } else {
-                            // Handle failure case
-                            Bukkit.getPluginManager()
-                                .callEvent(
-                                    new SortFailedEvent(
-                                        inv,
-                                        p,
-                                        "Failed to apply sorting"
-                                    )
-                                );
-                            if (loc != null) inProgress.remove(loc);
-                        }
-                    })
-            );
-    }
+                    if (loc != null) inProgress.remove(loc);
+                    return;
+                }
+
+                // Verify all items are accounted for
+                if (!validateItemCounts(items, sorted)) {
+                    tick.stop(p);
+                    p.playSound(
+                        p.getLocation(),
+                        Sound.ENTITY_VILLAGER_NO,
+                        0.7f,
+                        1.0f
+                    );
+                    p.sendMessage(
+                        Component.text(
+                            "[SmartSort] Item count mismatch - sorting aborted"
+                        ).color(NamedTextColor.RED)
+                    );
+                    debug.console(
+                        "[SORT ERROR] Item count mismatch - original vs sorted"
+                    );
 
-    /**
-     * Parse AI response into sorted items
-     */
-    private List<ItemStack> parseAIResponse(
-        String response,
-        List<ItemStack> originalItems
-    ) {
-        // Use the AIResponseParser to parse the response
-        return responseParser.parseResponse(response, originalItems);
+                    // Fire sort failed event
+                    Bukkit.getPluginManager()
+                        .callEvent(
+                            new SortFailedEvent(inv, p, "Item count mismatch")
+                        );
+
+                    if (loc != null) inProgress.remove(loc);
+                    return;
+                }
+
+                // Only remember sorts the AI actually made; local
+                // fallback replies are applied but not kept
+                boolean fromAi = !request.isAnsweredLocally();
+                if (fromAi) {
+                    SortPlan plan = SortPlan.of(sorted);
+                    versionedCache.put(signature, plan, planGeneration);
+                    similarPlans.add(plan);
+                    if (planStore != null) {
+                        planStore.append(signature, plan);
+                    }
+                }
+
+                // Apply the sorted items using our container applier
+                boolean success = containerSortApplier.applySortedItems(
+                    inv,
+                    sorted,
+                    p
+                );
+
+                if (success) {
+                    if (fromAi) rankLearner.record(sorted);
+
+                    // Fire sort completed event
+                    Bukkit.getPluginManager()
+                        .callEvent(new SortCompletedEvent(inv, p, sorted));
+                    if (loc != null) inProgress.remove(loc);
+                } else {
+                    // Handle failure case
+                    Bukkit.getPluginManager()
+                        .callEvent(
+                            new SortFailedEvent(
+                                inv,
+                                p,
+                                "Failed to apply sorting"
+                            )
+                        );
+                    if (loc != null) inProgress.remove(loc);
+                }
+            });
     }
 
     // Add validation method to ensure item count consistency
@@ -390,4 +529,11 @@ public class ContainerSorter implements Listener {
 
         return true;
     }
+
+    /** Contents and time of a container's last sort */
+    private static class LastSort {
+
+        long signature;
+        long sortedAt;
+    }
 }
@@ -0,0 +1,246 @@
+package smartsort.containers;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.bukkit.Material;
+import org.bukkit.inventory.ItemStack;
+import smartsort.sorting.SortEngine;
+
+/**
+ * Finds a known sort plan for a container whose contents only differ a
+ * little from a container the AI sorted before.
+ * <p>
+ * Plans are indexed by their material set alone, so a container with the
+ * same materials in other amounts reuses a plan directly. Failing that, a
+ * MinHash of the material set is split into bands; plans sharing a band
+ * are candidates, and the one with the highest exact Jaccard similarity
+ * is adapted if it is close enough: missing materials are skipped and new
+ * ones are slotted in next to the planned material nearest in the local
+ * sort order.
+ * <p>
+ * Holds the most recently used plans up to a fixed count. Thread-safe,
+ * since the plan store warms it from its own thread.
+ */
+public class SimilarPlanIndex {
+
+    private static final int HASHES = 16;
+    private static final int ROWS_PER_BAND = 2;
+    private static final int BANDS = HASHES / ROWS_PER_BAND;
+    private static final long[] SEEDS = new long[HASHES];
+
+    static {
+        long seed = 0x5EED5EEDL;
+        for (int i = 0; i < HASHES; i++) {
+            seed += 0x9E3779B97F4A7C15L;
+            SEEDS[i] = mix(seed);
+        }
+    }
+
+    private final SortEngine engine;
+    private final int maxEntries;
+    private final double minSimilarity;
+    private final int maxNewMaterials;
+    // Material set key -> entry, least recently used first
+    private final LinkedHashMap<Long, Entry> bySet;
+    // Band key -> entries with that band of their MinHash
+    private final Map<Long, List<Entry>> bands = new HashMap<>();
+
+    /**
+     * @param maxEntries Plans to remember, 0 disables the index
+     * @param minSimilarity Jaccard similarity of the material sets needed
+     * to adapt a plan, from 0 to 1
+     * @param maxNewMaterials Most materials a container may have that the
+     * plan doesn't
+     */
+    public SimilarPlanIndex(
+        SortEngine engine,
+        int maxEntries,
+        double minSimilarity,
+        int maxNewMaterials
+    ) {
+        this.engine = engine;
+        this.maxEntries = Math.max(0, maxEntries);
+        this.minSimilarity = minSimilarity;
+        this.maxNewMaterials = Math.max(0, maxNewMaterials);
+        this.bySet = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Entry> e) {
+                if (size() <= SimilarPlanIndex.this.maxEntries) return false;
+                unlink(e.getValue());
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Remember a plan, replacing any plan for the same material set
+     */
+    public synchronized void add(SortPlan plan) {
+        if (maxEntries == 0 || plan.size() == 0) return;
+
+        short[] materials = plan.materials();
+        long key = setKey(materials);
+        Entry previous = bySet.remove(key);
+        if (previous != null) unlink(previous);
+
+        Entry entry = new Entry(key, materials, minHash(materials), plan);
+        for (int band = 0; band < BANDS; band++) {
+            bands
+                .computeIfAbsent(bandKey(entry.minHash, band), k ->
+                    new ArrayList<>(1)
+                )
+                .add(entry);
+        }
+        bySet.put(key, entry);
+    }
+
+    /**
+     * Sort a container like the most similar known plan
+     * @param items The container's items, not modified
+     * @return Clones of the items in sorted order, or null if no plan is
+     * close enough
+     */
+    public synchronized List<ItemStack> find(List<ItemStack> items) {
+        if (maxEntries == 0 || bySet.isEmpty()) return null;
+
+        short[] materials = materialsOf(items);
+        if (materials.length == 0) return null;
+
+        Entry same = bySet.get(setKey(materials));
+        if (same != null && Arrays.equals(same.materials, materials)) {
+            return same.plan.adapt(items, engine);
+        }
+
+        int[] hash = minHash(materials);
+        Entry best = null;
+        double bestSimilarity = minSimilarity;
+        for (int band = 0; band < BANDS; band++) {
+            List<Entry> candidates = bands.get(bandKey(hash, band));
+            if (candidates == null) continue;
+            for (Entry candidate : candidates) {
+                if (candidate == best) continue;
+                int shared = sharedCount(materials, candidate.materials);
+                if (materials.length - shared > maxNewMaterials) continue;
+                double similarity =
+                    (double) shared /
+                    (materials.length + candidate.materials.length - shared);
+                if (similarity >= bestSimilarity) {
+                    best = candidate;
+                    bestSimilarity = similarity;
+                }
+            }
+        }
+        if (best == null) return null;
+
+        bySet.get(best.key); // Keep it from being evicted
+        return best.plan.adapt(items, engine);
+    }
+
+    public synchronized int size() {
+        return bySet.size();
+    }
+
+    private void unlink(Entry entry) {
+        for (int band = 0; band < BANDS; band++) {
+            long key = bandKey(entry.minHash, band);
+            List<Entry> entries = bands.get(key);
+            if (entries == null) continue;
+            entries.remove(entry);
+            if (entries.isEmpty()) bands.remove(key);
+        }
+    }
+
+    /**
+     * @return The distinct material ordinals of the items, ascending
+     */
+    private static short[] materialsOf(List<ItemStack> items) {
+        short[] materials = new short[items.size()];
+        int count = 0;
+        for (ItemStack item : items) {
+            if (item == null || item.getType() == Material.AIR) continue;
+            materials[count++] = (short) item.getType().ordinal();
+        }
+        Arrays.sort(materials, 0, count);
+
+        int distinct = 0;
+        for (int i = 0; i < count; i++) {
+            if (distinct == 0 || materials[distinct - 1] != materials[i]) {
+                materials[distinct++] = materials[i];
+            }
+        }
+        return Arrays.copyOf(materials, distinct);
+    }
+
+    /**
+     * Number of materials in both ascending arrays
+     */
+    private static int sharedCount(short[] a, short[] b) {
+        int shared = 0;
+        for (int i = 0, j = 0; i < a.length && j < b.length;) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                shared++;
+                i++;
+                j++;
+            }
+        }
+        return shared;
+    }
+
+    private static long setKey(short[] materials) {
+        long key = materials.length;
+        for (short material : materials) {
+            key = mix(key * 31 + material);
+        }
+        return key;
+    }
+
+    private static int[] minHash(short[] materials) {
+        int[] hash = new int[HASHES];
+        Arrays.fill(hash, Integer.MAX_VALUE);
+        for (short material : materials) {
+            for (int i = 0; i < HASHES; i++) {
+                int h = (int) mix(SEEDS[i] ^ material);
+                if (h < hash[i]) hash[i] = h;
+            }
+        }
+        return hash;
+    }
+
+    private static long bandKey(int[] hash, int band) {
+        long key = band;
+        for (int row = 0; row < ROWS_PER_BAND; row++) {
+            key = key * 0x100000001B3L + hash[band * ROWS_PER_BAND + row];
+        }
+        return mix(key);
+    }
+
+    // SplitMix64 finalizer
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    private static class Entry {
+
+        final long key;
+        final short[] materials;
+        final int[] minHash;
+        final SortPlan plan;
+
+        Entry(long key, short[] materials, int[] minHash, SortPlan plan) {
+            this.key = key;
+            this.materials = materials;
+            this.minHash = minHash;
+            this.plan = plan;
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package smartsort.containers;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.bukkit.Material;
+import org.bukkit.inventory.ItemStack;
+import smartsort.sorting.SortEngine;
+
+/**
+ * Compact record of how a container was sorted: the order of its materials
+ * and the total amount of each, as ordinals in a short array and amounts in
+ * an int array. Applied to the container's live items rather than placing
+ * stored stacks, so no ItemStacks are kept. Immutable.
+ */
+public class SortPlan {
+
+    // Fixed per-plan cost: object header, two array headers, the fields
+    private static final int BASE_WEIGHT = 64;
+
+    private final short[] ordinals;
+    private final int[] amounts;
+
+    private SortPlan(short[] ordinals, int[] amounts) {
+        this.ordinals = ordinals;
+        this.amounts = amounts;
+    }
+
+    /**
+     * Record the material order of a sorted container
+     * @param sorted The items in sorted order
+     */
+    public static SortPlan of(List<ItemStack> sorted) {
+        short[] ordinals = new short[sorted.size()];
+        int[] amounts = new int[sorted.size()];
+        int count = 0;
+        for (ItemStack item : sorted) {
+            if (item == null || item.getType() == Material.AIR) continue;
+            short ordinal = (short) item.getType().ordinal();
+            int index = indexOf(ordinals, count, ordinal);
+            if (index < 0) {
+                index = count++;
+                ordinals[index] = ordinal;
+            }
+            amounts[index] += item.getAmount();
+        }
+        return new SortPlan(
+            Arrays.copyOf(ordinals, count),
+            Arrays.copyOf(amounts, count)
+        );
+    }
+
+    /**
+     * Order a container's items like this plan
+     * @param items The container's current items, not modified
+     * @return Clones of the items in plan order, or null if the items don't
+     * have the materials and amounts the plan was made for
+     */
+    public List<ItemStack> apply(List<ItemStack> items) {
+        int[] seen = new int[ordinals.length];
+        List<List<ItemStack>> byPosition = new ArrayList<>(ordinals.length);
+        for (int i = 0; i < ordinals.length; i++) {
+            byPosition.add(new ArrayList<>(1));
+        }
+        for (ItemStack item : items) {
+            if (item == null || item.getType() == Material.AIR) continue;
+            int index = indexOf(
+                ordinals,
+                ordinals.length,
+                (short) item.getType().ordinal()
+            );
+            if (index < 0) return null;
+            seen[index] += item.getAmount();
+            byPosition.get(index).add(item.clone());
+        }
+        if (!Arrays.equals(seen, amounts)) return null;
+
+        List<ItemStack> sorted = new ArrayList<>(items.size());
+        for (List<ItemStack> group : byPosition) sorted.addAll(group);
+        return sorted;
+    }
+
+    /**
+     * Order items of roughly the materials this plan was made for. Amounts
+     * are ignored, planned materials that are missing are skipped, and a
+     * material the plan doesn't know goes right after the planned material
+     * nearest below it in the engine's order.
+     * @param items The items to order, not modified
+     * @return Clones of the items in adapted plan order
+     */
+    List<ItemStack> adapt(List<ItemStack> items, SortEngine engine) {
+        Map<Material, Long> positions = new HashMap<>();
+        List<ItemStack> sorted = new ArrayList<>(items.size());
+        for (ItemStack item : items) {
+            if (item == null || item.getType() == Material.AIR) continue;
+            positions.computeIfAbsent(item.getType(), m ->
+                positionOf(m, engine)
+            );
+            sorted.add(item.clone());
+        }
+        // Stable, so stacks of one material keep their order
+        sorted.sort(
+            Comparator.comparingLong(item -> positions.get(item.getType()))
+        );
+        return sorted;
+    }
+
+    public int size() {
+        return ordinals.length;
+    }
+
+    /**
+     * @return Approximate heap footprint in bytes, for cache weighing
+     */
+    public int weight() {
+        return BASE_WEIGHT + ordinals.length * (Short.BYTES + Integer.BYTES);
+    }
+
+    /**
+     * Write the plan as a count followed by (ordinal, amount) pairs
+     */
+    void writeTo(DataOutput out) throws IOException {
+        out.writeShort(ordinals.length);
+        for (int i = 0; i < ordinals.length; i++) {
+            out.writeShort(ordinals[i]);
+            out.writeInt(amounts[i]);
+        }
+    }
+
+    /**
+     * Read a plan written by {@link #writeTo}
+     * @param materialCount Number of materials; larger ordinals are corrupt
+     */
+    static SortPlan readFrom(DataInput in, int materialCount)
+        throws IOException {
+        int count = in.readUnsignedShort();
+        short[] ordinals = new short[count];
+        int[] amounts = new int[count];
+        for (int i = 0; i < count; i++) {
+            ordinals[i] = in.readShort();
+            amounts[i] = in.readInt();
+            if (ordinals[i] < 0 || ordinals[i] >= materialCount) {
+                throw new IOException("Unknown material " + ordinals[i]);
+            }
+        }
+        return new SortPlan(ordinals, amounts);
+    }
+
+    /**
+     * @return The planned materials' ordinals, ascending
+     */
+    short[] materials() {
+        short[] sorted = ordinals.clone();
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    /**
+     * Sort key for a material: planned materials at odd slots in plan
+     * order, others at the even slot after their anchor, by engine rank
+     */
+    private long positionOf(Material material, SortEngine engine) {
+        int index = indexOf(
+            ordinals,
+            ordinals.length,
+            (short) material.ordinal()
+        );
+        if (index >= 0) return (long) (2 * index + 1) << 32;
+
+        Material[] materials = Material.values();
+        int rank = engine.rankOf(material);
+        int anchor = -1;
+        int anchorRank = Integer.MIN_VALUE;
+        for (int i = 0; i < ordinals.length; i++) {
+            int planned = engine.rankOf(materials[ordinals[i]]);
+            if (planned <= rank && planned > anchorRank) {
+                anchor = i;
+                anchorRank = planned;
+            }
+        }
+        return ((long) (2 * anchor + 2) << 32) | rank;
+    }
+
+    private static int indexOf(short[] ordinals, int count, short ordinal) {
+        for (int i = 0; i < count; i++) {
+            if (ordinals[i] == ordinal) return i;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,404 @@
+package smartsort.containers;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import org.bukkit.Material;
+import smartsort.SmartSortPlugin;
+import smartsort.util.DebugLogger;
+import smartsort.util.VersionedCache;
+
+/**
+ * Keeps container sort plans on disk so they survive restarts.
+ * <p>
+ * Plans are appended to a single log file as checksummed records; a plan
+ * stored again for the same signature simply supersedes the older record.
+ * At startup the log is read on a background thread and the most recent
+ * plans of the current generation are put into the in-memory cache. If
+ * most of the log is superseded, stale or expired, whether at startup or
+ * after later appends, it is compacted by rewriting only the live records
+ * and swapping the file in.
+ * <p>
+ * The file header fingerprints the material list, since plans store
+ * material ordinals; after a Minecraft update the old log is discarded.
+ * All file access happens on one background thread, in order.
+ */
+public class SortPlanStore {
+
+    private static final String FILE_NAME = "sort_plans.log";
+    private static final int MAGIC = 0x5353504c; // "SSPL"
+    private static final int FORMAT_VERSION = 2;
+    // Records are small; anything bigger means the log is corrupt
+    private static final int MAX_RECORD_BYTES = 64 * 1024;
+
+    private final SmartSortPlugin plugin;
+    private final DebugLogger debug;
+    private final File file;
+    private final long generation;
+    private final long maxAgeMillis;
+    private final int warmEntries;
+    private final ExecutorService io = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "SmartSort-PlanStore");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private OutputStream out;
+    // Set by read() when the log ends in a damaged record
+    private boolean tornTail;
+    // Records in the log and the signatures among them still live, kept
+    // up to date by appends to know when to compact
+    private int recordCount;
+    private final Set<Long> liveSignatures = new HashSet<>();
+
+    /**
+     * @param generation Generation of plans made now; others are not loaded
+     * @param maxAgeDays Plans older than this are dropped at compaction
+     * @param warmEntries How many recent plans to load at startup
+     */
+    public SortPlanStore(
+        SmartSortPlugin plugin,
+        DebugLogger debug,
+        long generation,
+        int maxAgeDays,
+        int warmEntries
+    ) {
+        this.plugin = plugin;
+        this.debug = debug;
+        this.file = new File(plugin.getDataFolder(), FILE_NAME);
+        this.generation = generation;
+        this.maxAgeMillis = TimeUnit.DAYS.toMillis(Math.max(1, maxAgeDays));
+        this.warmEntries = warmEntries;
+    }
+
+    /**
+     * Read the log in the background and warm the cache and the similar
+     * plan index with its most recent plans
+     */
+    public void load(
+        VersionedCache<Long, SortPlan> cache,
+        SimilarPlanIndex similarPlans
+    ) {
+        io.execute(() -> {
+            try {
+                warm(cache, similarPlans);
+            } catch (Exception e) {
+                plugin
+                    .getLogger()
+                    .warning(
+                        "Failed to load " + FILE_NAME + ": " + e.getMessage()
+                    );
+            }
+        });
+    }
+
+    /**
+     * Append a plan to the log in the background
+     */
+    public void append(long signature, SortPlan plan) {
+        long now = System.currentTimeMillis();
+        io.execute(() -> {
+            try {
+                if (out == null) openForAppend();
+                out.write(encode(new Record(signature, generation, now, plan)));
+                recordCount++;
+                liveSignatures.add(signature);
+                if (recordCount > 2 * liveSignatures.size() + 100) rewrite();
+            } catch (IOException e) {
+                debug.console(
+                    "[PlanStore] Failed to append: " + e.getMessage()
+                );
+            }
+        });
+    }
+
+    /**
+     * Finish pending writes and close the log
+     */
+    public void shutdown() {
+        io.execute(this::closeQuietly);
+        io.shutdown();
+        try {
+            io.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void warm(
+        VersionedCache<Long, SortPlan> cache,
+        SimilarPlanIndex similarPlans
+    ) throws IOException {
+        if (!file.exists()) return;
+
+        long started = System.nanoTime();
+        Map<Long, Record> latest = new HashMap<>();
+        int total = read(latest);
+        if (total < 0) {
+            debug.console(
+                "[PlanStore] Materials or format changed, discarding plans"
+            );
+            Files.deleteIfExists(file.toPath());
+            return;
+        }
+        List<Record> live = live(latest);
+        track(live, total);
+
+        int warmed = Math.min(warmEntries, live.size());
+        for (int i = 0; i < warmed; i++) {
+            Record record = live.get(i);
+            cache.preload(record.signature, record.plan, generation);
+            similarPlans.add(record.plan);
+        }
+
+        // Superseded, stale and expired records are dead weight, and
+        // appending after a damaged record would make the new ones unreadable
+        if (tornTail || total > 2 * live.size() + 100) compact(live, total);
+
+        debug.console(
+            "[PlanStore] Warmed cache with " +
+            warmed +
+            " of " +
+            live.size() +
+            " stored plans in " +
+            TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started) +
+            "ms"
+        );
+    }
+
+    /**
+     * Compact the log from the records on disk, once appends made most of
+     * it dead weight
+     */
+    private void rewrite() throws IOException {
+        Map<Long, Record> latest = new HashMap<>();
+        int total = read(latest);
+        if (total < 0) return;
+        compact(live(latest), total);
+    }
+
+    /**
+     * @return Records of the current generation that haven't expired, most
+     * recent first
+     */
+    private List<Record> live(Map<Long, Record> latest) {
+        long cutoff = System.currentTimeMillis() - maxAgeMillis;
+        List<Record> live = new ArrayList<>();
+        for (Record record : latest.values()) {
+            if (record.generation == generation && record.writtenAt >= cutoff) {
+                live.add(record);
+            }
+        }
+        live.sort(
+            Comparator.comparingLong((Record r) -> r.writtenAt).reversed()
+        );
+        return live;
+    }
+
+    private void track(List<Record> live, int total) {
+        recordCount = total;
+        liveSignatures.clear();
+        for (Record record : live) liveSignatures.add(record.signature);
+    }
+
+    /**
+     * Read every intact record, keeping the newest per signature. A torn
+     * or corrupt tail, e.g. from a crash mid-write, ends the read.
+     * @return Number of records read, or -1 if the log is for another
+     * format or other materials
+     */
+    private int read(Map<Long, Record> latest) throws IOException {
+        int total = 0;
+        try (
+            DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(file.toPath()))
+            )
+        ) {
+            if (
+                in.readInt() != MAGIC ||
+                in.readInt() != FORMAT_VERSION ||
+                in.readLong() != materialsFingerprint()
+            ) {
+                return -1;
+            }
+            int materialCount = Material.values().length;
+            tornTail = false;
+            while (true) {
+                Record record;
+                try {
+                    record = decode(in, materialCount);
+                } catch (DamagedRecordException e) {
+                    tornTail = true;
+                    break;
+                }
+                if (record == null) break;
+                total++;
+                latest.put(record.signature, record);
+            }
+        } catch (EOFException e) {
+            // Header missing: treat like another format
+            return total == 0 ? -1 : total;
+        }
+        return total;
+    }
+
+    private void compact(List<Record> live, int total) throws IOException {
+        closeQuietly();
+        File temp = new File(file.getPath() + ".tmp");
+        try (OutputStream compacted = new FileOutputStream(temp)) {
+            compacted.write(header());
+            for (Record record : live) compacted.write(encode(record));
+        }
+        Files.move(
+            temp.toPath(),
+            file.toPath(),
+            StandardCopyOption.REPLACE_EXISTING
+        );
+        track(live, live.size());
+        debug.console(
+            "[PlanStore] Compacted " + total + " records to " + live.size()
+        );
+    }
+
+    private void openForAppend() throws IOException {
+        boolean fresh = !file.exists() || file.length() == 0;
+        out = new FileOutputStream(file, true);
+        if (fresh) out.write(header());
+    }
+
+    private void closeQuietly() {
+        if (out == null) return;
+        try {
+            out.close();
+        } catch (IOException e) {
+            // Nothing left to flush
+        }
+        out = null;
+    }
+
+    private static byte[] header() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(16);
+        DataOutputStream data = new DataOutputStream(bytes);
+        data.writeInt(MAGIC);
+        data.writeInt(FORMAT_VERSION);
+        data.writeLong(materialsFingerprint());
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Record layout: payload length, payload, CRC32 of the payload
+     */
+    private static byte[] encode(Record record) throws IOException {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream(128);
+        DataOutputStream data = new DataOutputStream(payload);
+        data.writeLong(record.generation);
+        data.writeLong(record.writtenAt);
+        data.writeLong(record.signature);
+        record.plan.writeTo(data);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(
+            payload.size() + 8
+        );
+        DataOutputStream framed = new DataOutputStream(bytes);
+        framed.writeInt(payload.size());
+        payload.writeTo(framed);
+        framed.writeInt(crc(payload.toByteArray()));
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @return The next record, or null at the end of the log
+     * @throws DamagedRecordException If the record is torn or corrupt
+     */
+    private static Record decode(DataInputStream in, int materialCount)
+        throws IOException {
+        int length;
+        try {
+            length = in.readInt();
+        } catch (EOFException e) {
+            return null;
+        }
+        if (length <= 0 || length > MAX_RECORD_BYTES) {
+            throw new DamagedRecordException();
+        }
+
+        byte[] payload = new byte[length];
+        try {
+            in.readFully(payload);
+            if (in.readInt() != crc(payload)) {
+                throw new DamagedRecordException();
+            }
+        } catch (EOFException e) {
+            throw new DamagedRecordException();
+        }
+
+        try {
+            DataInputStream data = new DataInputStream(
+                new ByteArrayInputStream(payload)
+            );
+            long generation = data.readLong();
+            long writtenAt = data.readLong();
+            long signature = data.readLong();
+            SortPlan plan = SortPlan.readFrom(data, materialCount);
+            return new Record(signature, generation, writtenAt, plan);
+        } catch (IOException e) {
+            // Checksum matched but the content doesn't parse
+            throw new DamagedRecordException();
+        }
+    }
+
+    private static int crc(byte[] bytes) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        return (int) crc.getValue();
+    }
+
+    private static long materialsFingerprint() {
+        long hash = 1125899906842597L;
+        for (Material material : Material.values()) {
+            hash = 31 * hash + material.name().hashCode();
+        }
+        return hash;
+    }
+
+    private static class DamagedRecordException extends IOException {}
+
+    private static class Record {
+
+        final long signature;
+        final long generation;
+        final long writtenAt;
+        final SortPlan plan;
+
+        Record(
+            long signature,
+            long generation,
+            long writtenAt,
+            SortPlan plan
+        ) {
+            this.signature = signature;
+            this.generation = generation;
+            this.writtenAt = writtenAt;
+            this.plan = plan;
+        }
+    }
+}
@@ -19,6 +19,8 @@ import org.bukkit.inventory.ItemStack;
 import smartsort.SmartSortPlugin;
 import smartsort.api.openai.OpenAIPromptBuilder;
 import smartsort.api.openai.OpenAIService;
+import smartsort.api.pipeline.AiRequest;
+import smartsort.api.pipeline.RequestKind;
 import smartsort.events.inventory.SortFailedEvent;
 import smartsort.events.player.PlayerInventorySortCompletedEvent;
 import smartsort.events.player.PlayerInventorySortEvent;
@@ -255,11 +257,35 @@ public class PlayerInventorySorter
         String model = plugin
             .getConfig()
             .getString("openai.models.large", "gpt-4o");
+        AiRequest request = new AiRequest(
+            RequestKind.PLAYER_SORT,
+            playerId,
+            prompt,
+            model
+        );
+        request.setValidityCheck(
+            () ->
+                player.isOnline() &&
+                !changeTracker.hasPlayerInventoryChangedSince(
+                    playerId,
+                    sortStartTime
+                )
+        );
+        // Collect slot assignments as the reply streams in
+        PlayerInventoryResponseParser.Session parse =
+            responseParser.startSession(allItems);
+        request.setStreamListener(parse);
+
+        // Inventory changes and logging out cancel the request
+        Runnable cancel = () -> aiService.cancel(request);
+        changeTracker.watchPlayerInventory(playerId, cancel);
+
         aiService
-            .chat(prompt, model)
+            .submit(request)
             .thenAcceptAsync(response ->
                 Bukkit.getScheduler()
                     .runTask(plugin, () -> {
+                        changeTracker.unwatchPlayerInventory(playerId, cancel);
                         // Stop feedback first
                         tickSoundManager.stop(player);
 
@@ -306,10 +332,7 @@ public class PlayerInventorySorter
                         // Parse response and apply to inventory
                         try {
                             Map<String, ItemStack> slotMap =
-                                responseParser.parseResponse(
-                                    response,
-                                    allItems
-                                );
+                                parse.finish(response);
                             inventoryApplier.applySlotMap(
                                 player,
                                 slotMap,
@@ -441,11 +464,35 @@ public class PlayerInventorySorter
         String model = plugin
             .getConfig()
             .getString("openai.models.large", "gpt-4o");
+        AiRequest request = new AiRequest(
+            RequestKind.PLAYER_SORT,
+            playerId,
+            prompt,
+            model
+        );
+        request.setValidityCheck(
+            () ->
+                player.isOnline() &&
+                !changeTracker.hasPlayerInventoryChangedSince(
+                    playerId,
+                    sortStartTime
+                )
+        );
+        // Collect slot assignments as the reply streams in
+        PlayerInventoryResponseParser.Session parse =
+            responseParser.startSession(allItems);
+        request.setStreamListener(parse);
+
+        // Inventory changes and logging out cancel the request
+        Runnable cancel = () -> aiService.cancel(request);
+        changeTracker.watchPlayerInventory(playerId, cancel);
+
         aiService
-            .chat(prompt, model)
+            .submit(request)
             .thenAcceptAsync(response ->
                 Bukkit.getScheduler()
                     .runTask(plugin, () -> {
+                        changeTracker.unwatchPlayerInventory(playerId, cancel);
                         tickSoundManager.stop(player);
 
                         // Check if player still online
@@ -491,10 +538,7 @@ public class PlayerInventorySorter
                         // Parse response and apply to inventory
                         try {
                             Map<String, ItemStack> slotMap =
-                                responseParser.parseResponse(
-                                    response,
-                                    allItems
-                                );
+                                parse.finish(response);
                             inventoryApplier.applySlotMap(
                                 player,
                                 slotMap,
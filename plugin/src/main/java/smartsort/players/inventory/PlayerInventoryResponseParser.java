@@ -22,6 +22,120 @@ public class PlayerInventoryResponseParser extends BaseResponseParser {
     public Map<String, ItemStack> parseResponse(
         String response,
         List<ItemStack> originalItems
+    ) {
+        return startSession(originalItems).finish(response);
+    }
+
+    /**
+     * Start an incremental parse that can be fed a streamed reply
+     * @param originalItems The player's current items
+     */
+    public Session startSession(List<ItemStack> originalItems) {
+        return new Session(originalItems);
+    }
+
+    /**
+     * Collects slot assignments while the reply streams in. Slots are only
+     * filled once the whole reply is known, since armor goes first.
+     */
+    public class Session extends StreamSession<Map<String, ItemStack>> {
+
+        private final List<ItemStack> originalItems;
+        private final Set<Material> presentMaterials = new HashSet<>();
+        private final List<AISlotAssignment> assignments = new ArrayList<>();
+        private int unknownMaterials;
+
+        private Session(List<ItemStack> originalItems) {
+            this.originalItems = originalItems;
+            for (ItemStack item : originalItems) {
+                if (item != null) presentMaterials.add(item.getType());
+            }
+        }
+
+        @Override
+        protected void reset() {
+            assignments.clear();
+            unknownMaterials = 0;
+        }
+
+        @Override
+        protected boolean accept(String line) {
+            AISlotAssignment assignment = parseAssignment(line);
+            if (assignment == null) return true;
+            if (!presentMaterials.contains(assignment.material)) {
+                // Not in the inventory at all, the model is making things up
+                unknownMaterials++;
+                return unknownMaterials <= MAX_UNKNOWN_MATERIALS;
+            }
+            assignments.add(assignment);
+            return true;
+        }
+
+        @Override
+        protected Map<String, ItemStack> build() {
+            return placeAssignments(
+                new ArrayList<>(assignments),
+                originalItems
+            );
+        }
+    }
+
+    /**
+     * Parse one assignment line (format: "12xSTONE:SLOT_3")
+     * @return The assignment, or null if the line is not one
+     */
+    private AISlotAssignment parseAssignment(String line) {
+        line = line.trim();
+        if (line.isEmpty()) return null;
+
+        if (
+            !line.matches(
+                "(?i)\\d+\\s*[xX]\\s*[A-Z0-9_]+\\s*:\\s*[A-Z0-9_]+"
+            )
+        ) {
+            debug.console("[PlayerInvParser] Skipping invalid line: " + line);
+            return null;
+        }
+
+        try {
+            // Split into item and slot parts
+            String[] mainParts = line.split("\\s*:\\s*");
+            if (mainParts.length != 2) return null;
+
+            // Parse the item part
+            String itemPart = mainParts[0].trim();
+            Object[] parsed = parseResponseLine(itemPart);
+            if (parsed == null) return null;
+
+            int requestedAmount = (int) parsed[0];
+            Material material = (Material) parsed[1];
+            String slotName = mainParts[1].trim();
+
+            // Priority based on slot type
+            int priority = getSlotPriority(slotName);
+            return new AISlotAssignment(
+                material,
+                requestedAmount,
+                slotName,
+                priority
+            );
+        } catch (Exception e) {
+            debug.console(
+                "[PlayerInvParser] Error parsing line: " +
+                line +
+                " - " +
+                e.getMessage()
+            );
+            return null;
+        }
+    }
+
+    /**
+     * Fill slots from the parsed assignments, then place leftovers
+     */
+    private Map<String, ItemStack> placeAssignments(
+        List<AISlotAssignment> assignments,
+        List<ItemStack> originalItems
     ) {
         Map<String, ItemStack> slotMap = new HashMap<>();
 
@@ -34,59 +148,6 @@ public class PlayerInventoryResponseParser extends BaseResponseParser {
             " items"
         );
 
-        // Parse the AI response into slot assignments
-        List<AISlotAssignment> assignments = new ArrayList<>();
-
-        for (String line : response.split("\n")) {
-            line = line.trim();
-            if (line.isEmpty()) continue;
-
-            // Parse assignment line (format: "12xSTONE:SLOT_3")
-            if (
-                !line.matches(
-                    "(?i)\\d+\\s*[xX]\\s*[A-Z0-9_]+\\s*:\\s*[A-Z0-9_]+"
-                )
-            ) {
-                debug.console(
-                    "[PlayerInvParser] Skipping invalid line: " + line
-                );
-                continue;
-            }
-
-            try {
-                // Split into item and slot parts
-                String[] mainParts = line.split("\\s*:\\s*");
-                if (mainParts.length != 2) continue;
-                
-                // Parse the item part
-                String itemPart = mainParts[0].trim();
-                Object[] parsed = parseResponseLine(itemPart);
-                if (parsed == null) continue;
-                
-                int requestedAmount = (int) parsed[0];
-                Material material = (Material) parsed[1];
-                String slotName = mainParts[1].trim();
-
-                // Add to assignments list with priority based on slot type
-                int priority = getSlotPriority(slotName);
-                assignments.add(
-                    new AISlotAssignment(
-                        material,
-                        requestedAmount,
-                        slotName,
-                        priority
-                    )
-                );
-            } catch (Exception e) {
-                debug.console(
-                    "[PlayerInvParser] Error parsing line: " +
-                    line +
-                    " - " +
-                    e.getMessage()
-                );
-            }
-        }
-
         // Sort assignments by priority (armor first, then hotbar, then inventory)
         assignments.sort(Comparator.comparingInt(a -> a.priority));
 
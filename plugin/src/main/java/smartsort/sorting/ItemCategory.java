@@ -0,0 +1,18 @@
+package smartsort.sorting;
+
+/**
+ * Item groups in the order a sorted container lists them, modelled on the
+ * creative inventory tabs
+ */
+public enum ItemCategory {
+    BUILDING_BLOCKS,
+    COLORED_BLOCKS,
+    NATURAL_BLOCKS,
+    FUNCTIONAL_BLOCKS,
+    REDSTONE,
+    TOOLS,
+    COMBAT,
+    FOOD,
+    INGREDIENTS,
+    MISC,
+}
@@ -0,0 +1,120 @@
+package smartsort.sorting;
+
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.bukkit.Material;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.inventory.ItemStack;
+
+/**
+ * Decides whether a container can be sorted locally, so the AI is only
+ * asked when it can add something: either the container is simple enough
+ * for the {@link SortEngine}, or its materials are well covered by the
+ * {@link MaterialRankLearner}
+ */
+public class LocalSortPolicy {
+
+    public enum Mode {
+        /** Always ask the AI */
+        NEVER,
+        /** Sort simple containers locally, ask the AI for the rest */
+        AUTO,
+        /** Never ask the AI */
+        ALWAYS,
+    }
+
+    private final SortEngine engine;
+    private final MaterialRankLearner learner;
+    private final Mode mode;
+    private final int maxDistinctMaterials;
+    private final int maxCategories;
+
+    /**
+     * @param learner Learned ranking to use when confident, or null
+     * @param mode When to sort locally
+     * @param maxDistinctMaterials AUTO sorts locally up to this many
+     * different materials
+     * @param maxCategories AUTO also sorts locally when the items fall in
+     * at most this many categories, however many materials; 0 disables
+     */
+    public LocalSortPolicy(
+        SortEngine engine,
+        MaterialRankLearner learner,
+        Mode mode,
+        int maxDistinctMaterials,
+        int maxCategories
+    ) {
+        this.engine = engine;
+        this.learner = learner;
+        this.mode = mode;
+        this.maxDistinctMaterials = maxDistinctMaterials;
+        this.maxCategories = maxCategories;
+    }
+
+    /**
+     * Reads the policy from the "local_sort" config section
+     */
+    public static LocalSortPolicy fromConfig(
+        SortEngine engine,
+        MaterialRankLearner learner,
+        ConfigurationSection section
+    ) {
+        if (section == null) {
+            return new LocalSortPolicy(engine, learner, Mode.AUTO, 3, 0);
+        }
+        Mode mode;
+        try {
+            mode = Mode.valueOf(
+                section.getString("mode", "auto").toUpperCase()
+            );
+        } catch (IllegalArgumentException e) {
+            mode = Mode.AUTO;
+        }
+        return new LocalSortPolicy(
+            engine,
+            section.getBoolean("learned_ranking", true) ? learner : null,
+            mode,
+            section.getInt("max_distinct_materials", 3),
+            section.getInt("max_categories", 0)
+        );
+    }
+
+    /**
+     * Sort the items locally if the policy allows it
+     * @return New sorted list of clones, or null if the AI should be asked
+     */
+    public List<ItemStack> sortLocally(List<ItemStack> items) {
+        if (mode == Mode.NEVER) return null;
+        if (learner != null && isLearnable(items)) {
+            return learner.sort(items);
+        }
+        if (mode == Mode.ALWAYS || isSimple(items)) {
+            return engine.sort(items);
+        }
+        return null;
+    }
+
+    private boolean isLearnable(List<ItemStack> items) {
+        for (ItemStack item : items) {
+            if (item.hasItemMeta()) return false;
+        }
+        return learner.isConfident(items);
+    }
+
+    private boolean isSimple(List<ItemStack> items) {
+        Set<Material> materials = new HashSet<>();
+        Set<ItemCategory> categories = EnumSet.noneOf(ItemCategory.class);
+        for (ItemStack item : items) {
+            // Named or enchanted items may need the AI's judgement
+            if (item.hasItemMeta()) return false;
+            materials.add(item.getType());
+            categories.add(engine.categoryOf(item.getType()));
+        }
+        return (
+            materials.size() <= maxDistinctMaterials ||
+            (maxCategories > 0 && categories.size() <= maxCategories)
+        );
+    }
+}
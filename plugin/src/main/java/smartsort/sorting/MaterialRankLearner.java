@@ -0,0 +1,319 @@
+package smartsort.sorting;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.bukkit.Material;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.scheduler.BukkitTask;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import smartsort.SmartSortPlugin;
+import smartsort.util.DebugLogger;
+
+/**
+ * Learns how the AI orders materials from the sorts it got right.
+ * <p>
+ * Every accepted reply adds one vote per pair of materials in it, for the
+ * one the AI put first. From those votes each material gets a score, the
+ * share of its comparisons it came first in, and materials are ranked by
+ * score. Once every material of a container has been seen often enough,
+ * and the AI agreed with itself on every pair of them that it has sorted
+ * before, the container can be sorted by the learned ranking instead of
+ * asking again.
+ * <p>
+ * Votes are kept by material name in a JSON file and saved periodically.
+ * Thread-safe; recording and lookups happen on the main thread, saving
+ * off it.
+ */
+public class MaterialRankLearner {
+
+    private static final String FILE_NAME = "material_ranks.json";
+
+    private final SmartSortPlugin plugin;
+    private final DebugLogger debug;
+    private final SortEngine engine;
+    private final File file;
+    private final int minObservations;
+    private final int minAgreementPercent;
+
+    // Pair of ordinals (low, high) -> {low first, high first}
+    private final Map<Long, int[]> votes = new HashMap<>();
+    // Indexed by ordinal
+    private final int[] wins;
+    private final int[] comparisons;
+    private final int[] observations;
+    private boolean dirty;
+    private BukkitTask saveTask;
+    // Held for a whole save, so the timer and shutdown don't share the
+    // temp file or rename an older snapshot over a newer one
+    private final Object saveLock = new Object();
+
+    /**
+     * @param engine Breaks ties between equally scored materials
+     * @param minObservations Sorts a material must have been in before its
+     * rank is trusted
+     * @param minAgreementPercent How consistently the AI must have ordered
+     * a pair for its learned order to be trusted
+     */
+    public MaterialRankLearner(
+        SmartSortPlugin plugin,
+        DebugLogger debug,
+        SortEngine engine,
+        int minObservations,
+        int minAgreementPercent
+    ) {
+        this.plugin = plugin;
+        this.debug = debug;
+        this.engine = engine;
+        this.file = new File(plugin.getDataFolder(), FILE_NAME);
+        this.minObservations = Math.max(1, minObservations);
+        this.minAgreementPercent = minAgreementPercent;
+        int materials = Material.values().length;
+        this.wins = new int[materials];
+        this.comparisons = new int[materials];
+        this.observations = new int[materials];
+    }
+
+    /**
+     * Load saved votes and start saving every few minutes
+     */
+    public void start(int saveIntervalMinutes) {
+        load();
+        long ticks = 20L * 60 * Math.max(1, saveIntervalMinutes);
+        saveTask = plugin
+            .getServer()
+            .getScheduler()
+            .runTaskTimerAsynchronously(plugin, this::save, ticks, ticks);
+    }
+
+    public void shutdown() {
+        if (saveTask != null) saveTask.cancel();
+        save();
+    }
+
+    /**
+     * Learn from a sort the AI produced and that was applied
+     * @param sorted The items in the order the AI chose
+     */
+    public synchronized void record(List<ItemStack> sorted) {
+        List<Material> order = distinctMaterials(sorted);
+        for (Material material : order) observations[material.ordinal()]++;
+        for (int i = 0; i < order.size(); i++) {
+            for (int j = i + 1; j < order.size(); j++) {
+                vote(order.get(i), order.get(j), 1);
+            }
+        }
+        if (order.size() > 1) dirty = true;
+    }
+
+    /**
+     * Whether the learned ranking can sort these items as the AI would:
+     * all materials are well known and every pair of them that the AI has
+     * sorted before was ordered consistently, the same way the ranking does
+     */
+    public synchronized boolean isConfident(List<ItemStack> items) {
+        List<Material> materials = distinctMaterials(items);
+        if (materials.size() < 2) return false;
+
+        for (Material material : materials) {
+            if (observations[material.ordinal()] < minObservations) {
+                return false;
+            }
+        }
+        for (int i = 0; i < materials.size(); i++) {
+            for (int j = i + 1; j < materials.size(); j++) {
+                if (!isPairConfident(materials.get(i), materials.get(j))) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Sort by the learned ranking
+     * @return New list of clones of the items in learned order
+     */
+    public synchronized List<ItemStack> sort(List<ItemStack> items) {
+        List<ItemStack> sorted = new ArrayList<>(items.size());
+        for (ItemStack item : items) {
+            if (item != null && item.getType() != Material.AIR) {
+                sorted.add(item.clone());
+            }
+        }
+        sorted.sort((a, b) -> compare(a.getType(), b.getType()));
+        return sorted;
+    }
+
+    /**
+     * @return Number of materials whose rank is trusted
+     */
+    public synchronized int getKnownMaterials() {
+        int known = 0;
+        for (int count : observations) {
+            if (count >= minObservations) known++;
+        }
+        return known;
+    }
+
+    /**
+     * Higher score first, ties in the engine's order
+     */
+    private int compare(Material a, Material b) {
+        if (a == b) return 0;
+        int byScore = Double.compare(score(b), score(a));
+        return byScore != 0
+            ? byScore
+            : Integer.compare(engine.rankOf(a), engine.rankOf(b));
+    }
+
+    private boolean isPairConfident(Material a, Material b) {
+        int[] counts = votes.get(pairKey(a, b));
+        if (counts == null) return true; // Never seen together; rely on scores
+        boolean aLow = a.ordinal() < b.ordinal();
+        int aFirst = aLow ? counts[0] : counts[1];
+        int bFirst = aLow ? counts[1] : counts[0];
+        int total = aFirst + bFirst;
+        if (Math.max(aFirst, bFirst) * 100 < minAgreementPercent * total) {
+            return false;
+        }
+        // The ranking must agree with what the AI did for this pair
+        return (aFirst > bFirst) == (compare(a, b) < 0);
+    }
+
+    private double score(Material material) {
+        int i = material.ordinal();
+        // Smoothed so rarely compared materials stay near the middle
+        return (wins[i] + 1.0) / (comparisons[i] + 2.0);
+    }
+
+    private void vote(Material first, Material second, int count) {
+        boolean firstLow = first.ordinal() < second.ordinal();
+        int[] counts = votes.computeIfAbsent(
+            pairKey(first, second),
+            k -> new int[2]
+        );
+        counts[firstLow ? 0 : 1] += count;
+        wins[first.ordinal()] += count;
+        comparisons[first.ordinal()] += count;
+        comparisons[second.ordinal()] += count;
+    }
+
+    private static long pairKey(Material a, Material b) {
+        int low = Math.min(a.ordinal(), b.ordinal());
+        int high = Math.max(a.ordinal(), b.ordinal());
+        return ((long) low << 32) | high;
+    }
+
+    private static List<Material> distinctMaterials(List<ItemStack> items) {
+        Set<Material> seen = new LinkedHashSet<>();
+        for (ItemStack item : items) {
+            if (item != null && item.getType() != Material.AIR) {
+                seen.add(item.getType());
+            }
+        }
+        return new ArrayList<>(seen);
+    }
+
+    private void load() {
+        if (!file.exists()) return;
+        try {
+            JSONObject json = new JSONObject(Files.readString(file.toPath()));
+            synchronized (this) {
+                JSONObject seen = json.optJSONObject("observations");
+                if (seen != null) {
+                    for (String name : seen.keySet()) {
+                        Material material = Material.matchMaterial(name);
+                        if (material != null) {
+                            int count = seen.getInt(name);
+                            observations[material.ordinal()] = count;
+                        }
+                    }
+                }
+                JSONArray pairs = json.optJSONArray("pairs");
+                if (pairs != null) {
+                    for (int i = 0; i < pairs.length(); i++) {
+                        // [a, b, a before b, b before a]
+                        JSONArray pair = pairs.getJSONArray(i);
+                        Material a = Material.matchMaterial(pair.getString(0));
+                        Material b = Material.matchMaterial(pair.getString(1));
+                        if (a == null || b == null || a == b) continue;
+                        vote(a, b, pair.getInt(2));
+                        vote(b, a, pair.getInt(3));
+                    }
+                }
+            }
+            debug.console(
+                "[RankLearner] Loaded " +
+                votes.size() +
+                " material pairs, " +
+                getKnownMaterials() +
+                " materials known"
+            );
+        } catch (Exception e) {
+            plugin
+                .getLogger()
+                .warning("Failed to load " + FILE_NAME + ": " + e.getMessage());
+        }
+    }
+
+    private void save() {
+        synchronized (saveLock) {
+            String content;
+            synchronized (this) {
+                if (!dirty) return;
+                dirty = false;
+                content = toJson().toString();
+            }
+            try {
+                // Write then rename, so a crash mid-save keeps the old file
+                File temp = new File(file.getPath() + ".tmp");
+                Files.writeString(temp.toPath(), content);
+                Files.move(
+                    temp.toPath(),
+                    file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING
+                );
+            } catch (IOException e) {
+                synchronized (this) {
+                    dirty = true;
+                }
+                plugin
+                    .getLogger()
+                    .warning(
+                        "Failed to save " + FILE_NAME + ": " + e.getMessage()
+                    );
+            }
+        }
+    }
+
+    private JSONObject toJson() {
+        Material[] materials = Material.values();
+        JSONObject seen = new JSONObject();
+        for (int i = 0; i < observations.length; i++) {
+            if (observations[i] > 0) {
+                seen.put(materials[i].name(), observations[i]);
+            }
+        }
+        JSONArray pairs = new JSONArray();
+        for (Map.Entry<Long, int[]> entry : votes.entrySet()) {
+            long key = entry.getKey();
+            pairs.put(
+                new JSONArray()
+                    .put(materials[(int) (key >>> 32)].name())
+                    .put(materials[(int) key].name())
+                    .put(entry.getValue()[0])
+                    .put(entry.getValue()[1])
+            );
+        }
+        return new JSONObject().put("observations", seen).put("pairs", pairs);
+    }
+}
@@ -0,0 +1,397 @@
+package smartsort.sorting;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import org.bukkit.Material;
+import org.bukkit.Tag;
+import org.bukkit.inventory.ItemStack;
+
+/**
+ * Local rule-based sorter that orders a container in microseconds, without
+ * asking the AI.
+ * <p>
+ * Every material gets a fixed position once, at construction: first by
+ * {@link ItemCategory}, then by a group within the category (e.g. the kind
+ * of tool or armor piece), then by tier (netherite before diamond before
+ * iron...) and finally by name. Sorting is then a comparison of two ints
+ * per pair of items. Safe to use from any thread once constructed.
+ */
+public class SortEngine {
+
+    private static final String[] COLORS = {
+        "WHITE_",
+        "LIGHT_GRAY_",
+        "GRAY_",
+        "BLACK_",
+        "BROWN_",
+        "RED_",
+        "ORANGE_",
+        "YELLOW_",
+        "LIME_",
+        "GREEN_",
+        "CYAN_",
+        "LIGHT_BLUE_",
+        "BLUE_",
+        "PURPLE_",
+        "MAGENTA_",
+        "PINK_",
+    };
+    // Best first
+    private static final String[] TIERS = {
+        "NETHERITE_",
+        "DIAMOND_",
+        "IRON_",
+        "CHAINMAIL_",
+        "GOLDEN_",
+        "STONE_",
+        "LEATHER_",
+        "WOODEN_",
+    };
+    private static final String[] REDSTONE_NAMES = {
+        "REDSTONE",
+        "REPEATER",
+        "COMPARATOR",
+        "PISTON",
+        "OBSERVER",
+        "HOPPER",
+        "DISPENSER",
+        "DROPPER",
+        "LEVER",
+        "TRIPWIRE_HOOK",
+        "DAYLIGHT_DETECTOR",
+        "TARGET",
+        "SCULK_SENSOR",
+        "MINECART",
+        "TNT",
+    };
+    private static final String[] FUNCTIONAL_NAMES = {
+        "CHEST",
+        "BARREL",
+        "FURNACE",
+        "SMOKER",
+        "CRAFTING_TABLE",
+        "ANVIL",
+        "TABLE",
+        "STONECUTTER",
+        "GRINDSTONE",
+        "LOOM",
+        "ENCHANTING",
+        "BREWING_STAND",
+        "CAULDRON",
+        "BEACON",
+        "LANTERN",
+        "TORCH",
+        "CAMPFIRE",
+        "LADDER",
+        "SCAFFOLDING",
+        "BELL",
+        "SHELF",
+        "POT",
+        "JUKEBOX",
+    };
+    private static final String[] INGREDIENT_SUFFIXES = {
+        "_INGOT",
+        "_NUGGET",
+        "_SCRAP",
+        "_DUST",
+        "_SHARD",
+        "_DYE",
+        "_POWDER",
+        "_ROD",
+        "_TEMPLATE",
+    };
+    private static final String[] INGREDIENT_NAMES = {
+        "DIAMOND",
+        "EMERALD",
+        "LAPIS_LAZULI",
+        "QUARTZ",
+        "AMETHYST_SHARD",
+        "STICK",
+        "STRING",
+        "LEATHER",
+        "FEATHER",
+        "BONE",
+        "GUNPOWDER",
+        "SLIME_BALL",
+        "PAPER",
+        "BOOK",
+        "FLINT",
+        "CLAY_BALL",
+        "BRICK",
+        "ENDER_PEARL",
+        "GHAST_TEAR",
+        "WHEAT",
+        "SUGAR",
+        "EGG",
+    };
+    private static final String[] TOOL_NAMES = {
+        "SHEARS",
+        "FISHING_ROD",
+        "FLINT_AND_STEEL",
+        "BUCKET",
+        "COMPASS",
+        "CLOCK",
+        "SPYGLASS",
+        "BRUSH",
+        "LEAD",
+        "NAME_TAG",
+        "SADDLE",
+    };
+    private static final String[] COMBAT_NAMES = {
+        "BOW",
+        "CROSSBOW",
+        "TRIDENT",
+        "MACE",
+        "SHIELD",
+        "TOTEM_OF_UNDYING",
+    };
+
+    // Position of each material in the sorted order, indexed by ordinal
+    private final int[] order;
+    private final ItemCategory[] categories;
+
+    public SortEngine() {
+        Material[] materials = Material.values();
+        categories = new ItemCategory[materials.length];
+        int[] keys = new int[materials.length];
+        for (Material material : materials) {
+            int i = material.ordinal();
+            if (material.isLegacy()) {
+                // Never seen on items; keep them out of the tag lookups
+                categories[i] = ItemCategory.MISC;
+                keys[i] = Integer.MAX_VALUE;
+                continue;
+            }
+            ItemCategory category = classify(material);
+            categories[i] = category;
+            keys[i] =
+                category.ordinal() << 16 |
+                group(material, category) << 8 |
+                tier(material, category);
+        }
+
+        Integer[] byKey = new Integer[materials.length];
+        for (int i = 0; i < byKey.length; i++) byKey[i] = i;
+        Arrays.sort(
+            byKey,
+            Comparator.comparingInt((Integer i) -> keys[i]).thenComparing(i ->
+                sortName(materials[i])
+            )
+        );
+        order = new int[materials.length];
+        for (int position = 0; position < byKey.length; position++) {
+            order[byKey[position]] = position;
+        }
+    }
+
+    /**
+     * Sort a container's items. Stacks of the same material end up next to
+     * each other, keeping their original order among themselves.
+     * @param items The items to sort, not modified
+     * @return New list of clones of the items in sorted order
+     */
+    public List<ItemStack> sort(List<ItemStack> items) {
+        List<ItemStack> sorted = new ArrayList<>(items.size());
+        for (ItemStack item : items) {
+            if (item != null && item.getType() != Material.AIR) {
+                sorted.add(item.clone());
+            }
+        }
+        sorted.sort(Comparator.comparingInt(item -> rankOf(item.getType())));
+        return sorted;
+    }
+
+    /**
+     * @return The material's position in the sorted order, lower first
+     */
+    public int rankOf(Material material) {
+        return order[material.ordinal()];
+    }
+
+    public ItemCategory categoryOf(Material material) {
+        return categories[material.ordinal()];
+    }
+
+    private static ItemCategory classify(Material material) {
+        String name = material.name();
+
+        if (material.isEdible()) return ItemCategory.FOOD;
+        if (name.endsWith("_ORE")) return ItemCategory.NATURAL_BLOCKS;
+        if (
+            Tag.ITEMS_SWORDS.isTagged(material) ||
+            Tag.ITEMS_ARROWS.isTagged(material) ||
+            isArmor(material) ||
+            matches(name, COMBAT_NAMES)
+        ) {
+            return ItemCategory.COMBAT;
+        }
+        if (isTool(material) || matches(name, TOOL_NAMES)) {
+            return ItemCategory.TOOLS;
+        }
+        if (
+            Tag.BUTTONS.isTagged(material) ||
+            Tag.PRESSURE_PLATES.isTagged(material) ||
+            Tag.RAILS.isTagged(material) ||
+            containsAny(name, REDSTONE_NAMES)
+        ) {
+            return ItemCategory.REDSTONE;
+        }
+
+        if (!material.isBlock()) {
+            if (
+                Tag.ITEMS_COALS.isTagged(material) ||
+                endsWithAny(name, INGREDIENT_SUFFIXES) ||
+                matches(name, INGREDIENT_NAMES)
+            ) {
+                return ItemCategory.INGREDIENTS;
+            }
+            return ItemCategory.MISC;
+        }
+
+        if (
+            Tag.SHULKER_BOXES.isTagged(material) ||
+            Tag.SIGNS.isTagged(material) ||
+            Tag.BEDS.isTagged(material) ||
+            containsAny(name, FUNCTIONAL_NAMES)
+        ) {
+            return ItemCategory.FUNCTIONAL_BLOCKS;
+        }
+        if (
+            Tag.LOGS.isTagged(material) ||
+            Tag.LEAVES.isTagged(material) ||
+            Tag.SAPLINGS.isTagged(material) ||
+            Tag.FLOWERS.isTagged(material) ||
+            Tag.DIRT.isTagged(material) ||
+            name.equals("SAND") ||
+            name.equals("GRAVEL")
+        ) {
+            return ItemCategory.NATURAL_BLOCKS;
+        }
+        if (Tag.WOOL.isTagged(material) || startsWithAny(name, COLORS)) {
+            return ItemCategory.COLORED_BLOCKS;
+        }
+        return ItemCategory.BUILDING_BLOCKS;
+    }
+
+    /**
+     * Finer grouping within a category, so e.g. all pickaxes or all
+     * helmets stay together across tiers
+     */
+    private static int group(Material material, ItemCategory category) {
+        String name = material.name();
+        return switch (category) {
+            case COMBAT -> {
+                if (Tag.ITEMS_SWORDS.isTagged(material)) yield 0;
+                if (Tag.ITEMS_HEAD_ARMOR.isTagged(material)) yield 2;
+                if (Tag.ITEMS_CHEST_ARMOR.isTagged(material)) yield 3;
+                if (Tag.ITEMS_LEG_ARMOR.isTagged(material)) yield 4;
+                if (Tag.ITEMS_FOOT_ARMOR.isTagged(material)) yield 5;
+                if (Tag.ITEMS_ARROWS.isTagged(material)) yield 6;
+                yield 1;
+            }
+            case TOOLS -> {
+                if (Tag.ITEMS_PICKAXES.isTagged(material)) yield 0;
+                if (Tag.ITEMS_AXES.isTagged(material)) yield 1;
+                if (Tag.ITEMS_SHOVELS.isTagged(material)) yield 2;
+                if (Tag.ITEMS_HOES.isTagged(material)) yield 3;
+                yield 4;
+            }
+            case BUILDING_BLOCKS -> {
+                if (Tag.PLANKS.isTagged(material)) yield 1;
+                if (Tag.STAIRS.isTagged(material)) yield 2;
+                if (Tag.SLABS.isTagged(material)) yield 3;
+                if (Tag.WALLS.isTagged(material)) yield 4;
+                if (Tag.FENCES.isTagged(material)) yield 5;
+                if (
+                    Tag.DOORS.isTagged(material) ||
+                    Tag.TRAPDOORS.isTagged(material)
+                ) yield 6;
+                yield 0;
+            }
+            case NATURAL_BLOCKS -> {
+                if (name.endsWith("_ORE")) yield 0;
+                if (Tag.LOGS.isTagged(material)) yield 1;
+                if (Tag.LEAVES.isTagged(material)) yield 2;
+                if (Tag.SAPLINGS.isTagged(material)) yield 3;
+                if (Tag.FLOWERS.isTagged(material)) yield 4;
+                yield 5;
+            }
+            default -> 0;
+        };
+    }
+
+    private static int tier(Material material, ItemCategory category) {
+        if (category != ItemCategory.TOOLS && category != ItemCategory.COMBAT) {
+            return 0;
+        }
+        String name = material.name();
+        for (int i = 0; i < TIERS.length; i++) {
+            if (name.startsWith(TIERS[i])) return i;
+        }
+        return TIERS.length;
+    }
+
+    /**
+     * Name used to order materials with the same key. Colored blocks are
+     * ordered by block type first (all wool, then all concrete...) and by
+     * color within a type.
+     */
+    private static String sortName(Material material) {
+        String name = material.name();
+        for (int i = 0; i < COLORS.length; i++) {
+            if (name.startsWith(COLORS[i])) {
+                String type = name.substring(COLORS[i].length());
+                return type + "#" + (char) ('a' + i);
+            }
+        }
+        return name;
+    }
+
+    private static boolean isArmor(Material material) {
+        return (
+            Tag.ITEMS_HEAD_ARMOR.isTagged(material) ||
+            Tag.ITEMS_CHEST_ARMOR.isTagged(material) ||
+            Tag.ITEMS_LEG_ARMOR.isTagged(material) ||
+            Tag.ITEMS_FOOT_ARMOR.isTagged(material)
+        );
+    }
+
+    private static boolean isTool(Material material) {
+        return (
+            Tag.ITEMS_PICKAXES.isTagged(material) ||
+            Tag.ITEMS_AXES.isTagged(material) ||
+            Tag.ITEMS_SHOVELS.isTagged(material) ||
+            Tag.ITEMS_HOES.isTagged(material)
+        );
+    }
+
+    private static boolean matches(String name, String[] names) {
+        for (String candidate : names) {
+            if (name.equals(candidate)) return true;
+        }
+        return false;
+    }
+
+    private static boolean containsAny(String name, String[] parts) {
+        for (String part : parts) {
+            if (name.contains(part)) return true;
+        }
+        return false;
+    }
+
+    private static boolean startsWithAny(String name, String[] prefixes) {
+        for (String prefix : prefixes) {
+            if (name.startsWith(prefix)) return true;
+        }
+        return false;
+    }
+
+    private static boolean endsWithAny(String name, String[] suffixes) {
+        for (String suffix : suffixes) {
+            if (name.endsWith(suffix)) return true;
+        }
+        return false;
+    }
+}
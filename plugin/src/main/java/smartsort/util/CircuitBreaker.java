@@ -0,0 +1,210 @@
+package smartsort.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Circuit breaker for calls to a remote service.
+ * <p>
+ * While closed, the outcome of the last calls is kept in a sliding window.
+ * Failed calls and calls slower than the slow-call threshold both count as
+ * failures; once enough calls were seen and the failure rate reaches the
+ * threshold the breaker opens and callers should use their fallback.
+ * <p>
+ * After the open period a few probe calls are let through (half-open).
+ * If they all succeed the breaker closes again, one failure reopens it.
+ */
+public class CircuitBreaker {
+
+    private enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN,
+    }
+
+    private final String name;
+    private final DebugLogger debug;
+    private final int minCalls;
+    private final int failureRatePercent;
+    private final long slowCallNanos;
+    private final long openNanos;
+    private final int halfOpenProbes;
+
+    // Ring buffer of recent outcomes, true = failed
+    private final boolean[] window;
+    private int windowCount;
+    private int windowNext;
+    private int windowFailures;
+
+    private State state = State.CLOSED;
+    private long openedAt;
+    private int probesStarted;
+    private int probesSucceeded;
+
+    private final LongAdder timesOpened = new LongAdder();
+    private final LongAdder fallbacks = new LongAdder();
+
+    /**
+     * @param name Name of the protected service, for logs
+     * @param windowSize Number of recent calls the failure rate is taken over
+     * @param minCalls Calls needed in the window before the breaker can open
+     * @param failureRatePercent Failure rate at which the breaker opens
+     * @param slowCallMillis Calls taking at least this long count as failed
+     * @param openSeconds How long to stay open before probing
+     * @param halfOpenProbes Successful probes needed to close again
+     */
+    public CircuitBreaker(
+        String name,
+        DebugLogger debug,
+        int windowSize,
+        int minCalls,
+        int failureRatePercent,
+        long slowCallMillis,
+        long openSeconds,
+        int halfOpenProbes
+    ) {
+        this.name = name;
+        this.debug = debug;
+        this.window = new boolean[Math.max(1, windowSize)];
+        this.minCalls = Math.max(1, Math.min(minCalls, window.length));
+        this.failureRatePercent = Math.max(1, failureRatePercent);
+        this.slowCallNanos = TimeUnit.MILLISECONDS.toNanos(slowCallMillis);
+        this.openNanos = TimeUnit.SECONDS.toNanos(Math.max(1, openSeconds));
+        this.halfOpenProbes = Math.max(1, halfOpenProbes);
+    }
+
+    /**
+     * Whether calls are currently refused, without claiming a probe slot.
+     * Lets callers skip queueing work that would only be refused later.
+     */
+    public synchronized boolean isOpen() {
+        return switch (state) {
+            case CLOSED -> false;
+            case OPEN -> System.nanoTime() - openedAt < openNanos;
+            case HALF_OPEN -> probesStarted >= halfOpenProbes;
+        };
+    }
+
+    /**
+     * Ask to make a call. Every granted call must be followed by
+     * {@link #recordSuccess}, {@link #recordFailure} or {@link #recordIgnored}.
+     * @return false if the caller should use its fallback instead
+     */
+    public synchronized boolean tryAcquire() {
+        if (state == State.OPEN) {
+            if (System.nanoTime() - openedAt < openNanos) return false;
+            state = State.HALF_OPEN;
+            probesStarted = 0;
+            probesSucceeded = 0;
+            debug.console("[CircuitBreaker] " + name + " half-open, probing");
+        }
+        if (state == State.HALF_OPEN) {
+            if (probesStarted >= halfOpenProbes) return false;
+            probesStarted++;
+        }
+        return true;
+    }
+
+    /**
+     * Record a call that returned a usable reply
+     * @param latencyNanos How long the call took
+     */
+    public synchronized void recordSuccess(long latencyNanos) {
+        record(latencyNanos >= slowCallNanos);
+    }
+
+    /**
+     * Record a call that failed or returned an error
+     */
+    public synchronized void recordFailure() {
+        record(true);
+    }
+
+    /**
+     * Record a call that says nothing about the service's health, e.g.
+     * one cancelled by the caller. Frees its probe slot if it was a probe.
+     */
+    public synchronized void recordIgnored() {
+        if (state == State.HALF_OPEN && probesStarted > 0) probesStarted--;
+    }
+
+    /**
+     * Count a request answered by the fallback
+     */
+    public void recordFallback() {
+        fallbacks.increment();
+    }
+
+    /**
+     * Get statistics about the breaker
+     * @return String containing breaker statistics
+     */
+    public synchronized String getStats() {
+        return (
+            "Circuit Breaker Stats: State=" +
+            state +
+            ", Failure rate=" +
+            (windowCount == 0 ? 0 : windowFailures * 100 / windowCount) +
+            "% of last " +
+            windowCount +
+            ", Opened=" +
+            timesOpened.sum() +
+            ", Fallbacks=" +
+            fallbacks.sum()
+        );
+    }
+
+    private void record(boolean failed) {
+        switch (state) {
+            case HALF_OPEN -> {
+                if (failed) {
+                    open("probe failed");
+                } else if (++probesSucceeded >= halfOpenProbes) {
+                    close();
+                }
+            }
+            case CLOSED -> {
+                if (windowCount == window.length) {
+                    if (window[windowNext]) windowFailures--;
+                } else {
+                    windowCount++;
+                }
+                window[windowNext] = failed;
+                if (failed) windowFailures++;
+                windowNext = (windowNext + 1) % window.length;
+
+                if (
+                    windowCount >= minCalls &&
+                    windowFailures * 100 >= failureRatePercent * windowCount
+                ) {
+                    open(windowFailures + "/" + windowCount + " calls failed");
+                }
+            }
+            case OPEN -> {
+                // Late result of a call made before opening
+            }
+        }
+    }
+
+    private void open(String reason) {
+        state = State.OPEN;
+        openedAt = System.nanoTime();
+        timesOpened.increment();
+        debug.console(
+            "[CircuitBreaker] " +
+            name +
+            " open for " +
+            TimeUnit.NANOSECONDS.toSeconds(openNanos) +
+            "s: " +
+            reason
+        );
+    }
+
+    private void close() {
+        state = State.CLOSED;
+        windowCount = 0;
+        windowNext = 0;
+        windowFailures = 0;
+        debug.console("[CircuitBreaker] " + name + " closed, recovered");
+    }
+}
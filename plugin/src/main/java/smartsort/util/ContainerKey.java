@@ -0,0 +1,123 @@
+package smartsort.util;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.inventory.Inventory;
+
+/**
+ * Identifies a container as a single long, so per-container maps can use
+ * primitive keys instead of "world:x:y:z" strings.
+ * <p>
+ * From the top bit: a world index (8 bits), then x (23), z (23) and y
+ * (10) as signed block coordinates. World index 0 is reserved for keys
+ * not tied to a block, such as the per-player fallback. Double chests
+ * report the point between their halves as their location, which rounds
+ * down to the same block from either half, so both halves share one key.
+ * <p>
+ * Keys are only meaningful while the plugin runs; world indexes are
+ * handed out as worlds are first seen.
+ */
+public final class ContainerKey {
+
+    /** No key: the container has no block location that fits */
+    public static final long NONE = 0;
+
+    private static final int MAX_XZ = 1 << 22;
+    private static final int MAX_Y = 1 << 9;
+    private static final int MAX_WORLDS = 255;
+    private static final long XZ_MASK = (1L << 23) - 1;
+    private static final long Y_MASK = (1L << 10) - 1;
+
+    private static final Map<UUID, Integer> worldIndexes =
+        new ConcurrentHashMap<>();
+    private static final String[] worldNames = new String[MAX_WORLDS + 1];
+
+    private ContainerKey() {}
+
+    /**
+     * @return Key of the inventory's block, or {@link #NONE}
+     */
+    public static long of(Inventory inventory) {
+        return inventory != null ? of(inventory.getLocation()) : NONE;
+    }
+
+    /**
+     * @return Key of the block at the location, or {@link #NONE} if there is
+     * none or its coordinates are too far out to pack
+     */
+    public static long of(Location location) {
+        if (location == null || location.getWorld() == null) return NONE;
+        int x = location.getBlockX();
+        int y = location.getBlockY();
+        int z = location.getBlockZ();
+        if (
+            x < -MAX_XZ ||
+            x >= MAX_XZ ||
+            z < -MAX_XZ ||
+            z >= MAX_XZ ||
+            y < -MAX_Y ||
+            y >= MAX_Y
+        ) {
+            return NONE;
+        }
+        int world = worldIndex(location.getWorld());
+        if (world == 0) return NONE;
+        return (
+            ((long) world << 56) |
+            ((x & XZ_MASK) << 33) |
+            ((z & XZ_MASK) << 10) |
+            (y & Y_MASK)
+        );
+    }
+
+    /**
+     * Key for containers without a location, one per player
+     */
+    public static long ofPlayer(UUID playerId) {
+        long bits =
+            (playerId.getMostSignificantBits() ^
+                playerId.getLeastSignificantBits()) &
+            ((1L << 56) - 1);
+        return bits != NONE ? bits : 1;
+    }
+
+    public static boolean isBlock(long key) {
+        return (key >>> 56) != 0;
+    }
+
+    /**
+     * @return Readable form for log output, "world:x:y:z" for blocks
+     */
+    public static String describe(long key) {
+        if (!isBlock(key)) return "player#" + Long.toHexString(key);
+        return (
+            worldNames[(int) (key >>> 56)] +
+            ":" +
+            (int) (key << 8 >> 41) +
+            ":" +
+            (int) (key << 54 >> 54) +
+            ":" +
+            (int) (key << 31 >> 41)
+        );
+    }
+
+    /**
+     * @return Index of the world from 1, or 0 if too many worlds were seen
+     */
+    private static int worldIndex(World world) {
+        Integer index = worldIndexes.get(world.getUID());
+        if (index != null) return index;
+        synchronized (worldIndexes) {
+            index = worldIndexes.get(world.getUID());
+            if (index != null) return index;
+            if (worldIndexes.size() >= MAX_WORLDS) return 0;
+            index = worldIndexes.size() + 1;
+            worldNames[index] = world.getName();
+            worldIndexes.put(world.getUID(), index);
+            return index;
+        }
+    }
+}
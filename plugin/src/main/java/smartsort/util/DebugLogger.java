@@ -100,6 +100,14 @@ public class DebugLogger {
         this.consoleDebug = enabled;
     }
 
+    /**
+     * @return Whether any debug output is shown, so callers can skip
+     * building costly messages
+     */
+    public boolean isEnabled() {
+        return consoleDebug || global || !chatPlayers.isEmpty();
+    }
+
     public void console(String msg) {
         // Queue message for processing on the main thread
         messageQueue.add(new LogMessage(msg, true));
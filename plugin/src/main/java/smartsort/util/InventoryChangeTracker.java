@@ -3,7 +3,6 @@ package smartsort.util;
 import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
-import org.bukkit.Location;
 import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.EventPriority;
@@ -12,6 +11,7 @@ import org.bukkit.event.entity.EntityPickupItemEvent;
 import org.bukkit.event.inventory.InventoryClickEvent;
 import org.bukkit.event.inventory.InventoryCloseEvent;
 import org.bukkit.event.player.PlayerDropItemEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
 import org.bukkit.inventory.Inventory;
 
 /**
@@ -22,8 +22,14 @@ public class InventoryChangeTracker implements Listener {
 
     private final Map<UUID, Long> playerInventoryChangeTimes =
         new ConcurrentHashMap<>();
-    private final Map<String, Long> containerChangeTimes =
+    // Guarded by itself; sorts check it from request threads
+    private final LongHashMap<Long> containerChangeTimes = new LongHashMap<>();
+    // One-shot callbacks for sorts waiting on the next change
+    private final Map<UUID, Runnable> playerWatchers =
         new ConcurrentHashMap<>();
+    // Guarded by itself
+    private final LongHashMap<Runnable> containerWatchers =
+        new LongHashMap<>();
     private final DebugLogger debug;
 
     public InventoryChangeTracker(DebugLogger debug) {
@@ -38,16 +44,60 @@ public class InventoryChangeTracker implements Listener {
         debug.console(
             "[ChangeTracker] Recorded player inventory change for " + playerId
         );
+        Runnable watcher = playerWatchers.remove(playerId);
+        if (watcher != null) watcher.run();
     }
 
     /**
      * Records when a container's inventory changes
      */
-    public void recordContainerChange(String containerKey) {
-        containerChangeTimes.put(containerKey, System.currentTimeMillis());
+    public void recordContainerChange(long containerKey) {
+        synchronized (containerChangeTimes) {
+            containerChangeTimes.put(containerKey, System.currentTimeMillis());
+        }
         debug.console(
-            "[ChangeTracker] Recorded container change for " + containerKey
+            "[ChangeTracker] Recorded container change for " +
+            ContainerKey.describe(containerKey)
         );
+        Runnable watcher;
+        synchronized (containerWatchers) {
+            watcher = containerWatchers.remove(containerKey);
+        }
+        if (watcher != null) watcher.run();
+    }
+
+    /**
+     * Run a callback once, on the next change to the player's inventory or
+     * when the player leaves. Replaces any earlier callback for the player.
+     */
+    public void watchPlayerInventory(UUID playerId, Runnable onChange) {
+        playerWatchers.put(playerId, onChange);
+    }
+
+    /**
+     * Remove a callback registered with {@link #watchPlayerInventory}
+     */
+    public void unwatchPlayerInventory(UUID playerId, Runnable onChange) {
+        playerWatchers.remove(playerId, onChange);
+    }
+
+    /**
+     * Run a callback once, on the next change to the container, including
+     * it being closed. Replaces any earlier callback for the container.
+     */
+    public void watchContainer(long containerKey, Runnable onChange) {
+        synchronized (containerWatchers) {
+            containerWatchers.put(containerKey, onChange);
+        }
+    }
+
+    /**
+     * Remove a callback registered with {@link #watchContainer}
+     */
+    public void unwatchContainer(long containerKey, Runnable onChange) {
+        synchronized (containerWatchers) {
+            containerWatchers.remove(containerKey, onChange);
+        }
     }
 
     /**
@@ -65,30 +115,16 @@ public class InventoryChangeTracker implements Listener {
      * Checks if container inventory has changed since the given timestamp
      */
     public boolean hasContainerChangedSince(
-        String containerKey,
+        long containerKey,
         long timestamp
     ) {
-        Long lastChange = containerChangeTimes.getOrDefault(containerKey, 0L);
+        Long lastChange;
+        synchronized (containerChangeTimes) {
+            lastChange = containerChangeTimes.getOrDefault(containerKey, 0L);
+        }
         return lastChange > timestamp;
     }
 
-    /**
-     * Gets container key from inventory location
-     */
-    public String getContainerKey(Inventory inventory) {
-        if (inventory == null || inventory.getLocation() == null) return null;
-        Location loc = inventory.getLocation();
-        return (
-            loc.getWorld().getName() +
-            ":" +
-            loc.getBlockX() +
-            ":" +
-            loc.getBlockY() +
-            ":" +
-            loc.getBlockZ()
-        );
-    }
-
     /**
      * Event listeners to automatically track inventory changes
      */
@@ -114,8 +150,8 @@ public class InventoryChangeTracker implements Listener {
         // Record container change if applicable
         Inventory clickedInventory = event.getClickedInventory();
         if (clickedInventory != null) {
-            String containerKey = getContainerKey(clickedInventory);
-            if (containerKey != null) {
+            long containerKey = ContainerKey.of(clickedInventory);
+            if (containerKey != ContainerKey.NONE) {
                 recordContainerChange(containerKey);
             }
         }
@@ -125,12 +161,20 @@ public class InventoryChangeTracker implements Listener {
     public void onInventoryClose(InventoryCloseEvent event) {
         // Record container change
         Inventory inventory = event.getInventory();
-        String containerKey = getContainerKey(inventory);
-        if (containerKey != null) {
+        long containerKey = ContainerKey.of(inventory);
+        if (containerKey != ContainerKey.NONE) {
             recordContainerChange(containerKey);
         }
     }
 
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerQuit(PlayerQuitEvent event) {
+        UUID playerId = event.getPlayer().getUniqueId();
+        Runnable watcher = playerWatchers.remove(playerId);
+        if (watcher != null) watcher.run();
+        cleanup(playerId);
+    }
+
     /**
      * Clean up resources
      */
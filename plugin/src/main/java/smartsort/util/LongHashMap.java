@@ -0,0 +1,165 @@
+package smartsort.util;
+
+import java.util.Arrays;
+
+/**
+ * Hash map from primitive long keys to non-null values, so lookups don't
+ * box the key. Open addressing with linear probing; removal shifts later
+ * entries back instead of leaving tombstones. Not thread-safe.
+ */
+public class LongHashMap<V> {
+
+    @FunctionalInterface
+    public interface EntryConsumer<V> {
+        void accept(long key, V value);
+    }
+
+    private long[] keys;
+    // null marks a free slot
+    private Object[] values;
+    private int mask;
+    private int size;
+
+    public LongHashMap() {
+        this(16);
+    }
+
+    /**
+     * @param expectedSize Entries to hold without resizing
+     */
+    public LongHashMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(4, expectedSize) * 2 - 1);
+        allocate(capacity * 2);
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        for (int slot = slotOf(key);; slot = (slot + 1) & mask) {
+            Object value = values[slot];
+            if (value == null) return null;
+            if (keys[slot] == key) return (V) value;
+        }
+    }
+
+    public V getOrDefault(long key, V fallback) {
+        V value = get(key);
+        return value != null ? value : fallback;
+    }
+
+    /**
+     * @return The previous value for the key, or null
+     */
+    @SuppressWarnings("unchecked")
+    public V put(long key, V value) {
+        if (value == null) throw new NullPointerException("value");
+        int slot = slotOf(key);
+        for (; values[slot] != null; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) {
+                V previous = (V) values[slot];
+                values[slot] = value;
+                return previous;
+            }
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        if (++size * 2 > values.length) resize();
+        return null;
+    }
+
+    /**
+     * @return The removed value, or null if the key wasn't present
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(long key) {
+        for (int slot = slotOf(key);; slot = (slot + 1) & mask) {
+            Object value = values[slot];
+            if (value == null) return null;
+            if (keys[slot] == key) {
+                deleteAt(slot);
+                return (V) value;
+            }
+        }
+    }
+
+    /**
+     * Remove the key only while it maps to the given value
+     * @return Whether it was removed
+     */
+    public boolean remove(long key, V value) {
+        for (int slot = slotOf(key);; slot = (slot + 1) & mask) {
+            Object current = values[slot];
+            if (current == null) return false;
+            if (keys[slot] == key) {
+                if (!current.equals(value)) return false;
+                deleteAt(slot);
+                return true;
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public void forEach(EntryConsumer<V> action) {
+        for (int slot = 0; slot < values.length; slot++) {
+            if (values[slot] != null) {
+                action.accept(keys[slot], (V) values[slot]);
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        Arrays.fill(values, null);
+        size = 0;
+    }
+
+    /**
+     * Free a slot, moving back entries that probed past it
+     */
+    private void deleteAt(int slot) {
+        int gap = slot;
+        for (int i = (slot + 1) & mask; values[i] != null; i = (i + 1) & mask) {
+            int home = slotOf(keys[i]);
+            // Movable if the gap lies between its home slot and where it is
+            if (((i - home) & mask) >= ((i - gap) & mask)) {
+                keys[gap] = keys[i];
+                values[gap] = values[i];
+                gap = i;
+            }
+        }
+        values[gap] = null;
+        size--;
+    }
+
+    private void resize() {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        allocate(values.length * 2);
+        for (int slot = 0; slot < oldValues.length; slot++) {
+            if (oldValues[slot] == null) continue;
+            int target = slotOf(oldKeys[slot]);
+            while (values[target] != null) target = (target + 1) & mask;
+            keys[target] = oldKeys[slot];
+            values[target] = oldValues[slot];
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new Object[capacity];
+        mask = capacity - 1;
+    }
+
+    private int slotOf(long key) {
+        // SplitMix64 finalizer; packed keys differ mostly in their low bits
+        key = (key ^ (key >>> 30)) * 0xBF58476D1CE4E5B9L;
+        key = (key ^ (key >>> 27)) * 0x94D049BB133111EBL;
+        return (int) (key ^ (key >>> 31)) & mask;
+    }
+}
@@ -1,19 +1,31 @@
 package smartsort.util;
 
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
- * Simple rate limiter for API requests with debug logging
+ * Lock-free token bucket for API requests.
+ * <p>
+ * Tokens refill continuously at maxRequests per period instead of all at
+ * once when the period ends. The whole bucket is a single timestamp (the
+ * point at which the bucket will be full again), so acquiring is one CAS.
+ * <p>
+ * The refill rate can be retuned at runtime and the bucket can be paused,
+ * so server-side quota feedback can steer it.
  */
 public class RateLimiter {
 
     private final int maxRequests;
     private final long periodMillis;
-    private long lastCheckTime = System.currentTimeMillis();
-    private int tokens;
+    private final long configuredNanosPerToken;
+    private volatile long nanosPerToken;
     private final DebugLogger debug;
-    private int totalRequestsAllowed = 0;
-    private int totalRequestsDenied = 0;
+
+    // Time at which every token spent so far will have been refilled
+    private final AtomicLong refilledAt = new AtomicLong(System.nanoTime());
+    private final LongAdder totalRequestsAllowed = new LongAdder();
+    private final LongAdder totalRequestsDenied = new LongAdder();
 
     /**
      * Creates a rate limiter
@@ -22,9 +34,11 @@ public class RateLimiter {
      * @param debug Debug logger for monitoring
      */
     public RateLimiter(int maxRequests, int perSeconds, DebugLogger debug) {
-        this.maxRequests = maxRequests;
-        this.periodMillis = TimeUnit.SECONDS.toMillis(perSeconds);
-        this.tokens = maxRequests;
+        this.maxRequests = Math.max(1, maxRequests);
+        this.periodMillis = TimeUnit.SECONDS.toMillis(Math.max(1, perSeconds));
+        this.configuredNanosPerToken =
+            TimeUnit.MILLISECONDS.toNanos(periodMillis) / this.maxRequests;
+        this.nanosPerToken = configuredNanosPerToken;
         this.debug = debug;
 
         debug.console(
@@ -40,46 +54,126 @@ public class RateLimiter {
      * Try to acquire a token for a request
      * @return true if request is allowed, false if rate limited
      */
-    public synchronized boolean tryAcquire() {
-        long now = System.currentTimeMillis();
-        long elapsed = now - lastCheckTime;
-
-        // Refill tokens if time period has passed
-        if (elapsed >= periodMillis) {
-            int refillAmount = maxRequests - tokens;
-            tokens = maxRequests;
-            lastCheckTime = now;
-            debug.console(
-                "[RateLimiter] Period reset. Refilled " +
-                refillAmount +
-                " tokens. Now at max capacity: " +
-                tokens
-            );
-        }
+    public boolean tryAcquire() {
+        return tryAcquire(1);
+    }
+
+    /**
+     * Try to acquire several tokens at once, e.g. for a large prompt
+     * @param permits Tokens to take, capped at the bucket size
+     * @return true if request is allowed, false if rate limited
+     */
+    public boolean tryAcquire(int permits) {
+        return tryAcquireNanos(permits) != 0;
+    }
 
-        // Allow request if tokens available
-        if (tokens > 0) {
-            tokens--;
-            totalRequestsAllowed++;
-            debug.console(
-                "[RateLimiter] Request allowed. Remaining tokens: " +
-                tokens +
-                " (Total allowed: " +
-                totalRequestsAllowed +
-                ")"
-            );
-            return true;
+    /**
+     * Like {@link #tryAcquire(int)}, but reports what the tokens cost at
+     * the current rate, so they can be given back exactly
+     * @return Refill nanoseconds charged, 0 if rate limited
+     */
+    public long tryAcquireNanos(int permits) {
+        long cost = costOf(permits);
+        long burstNanos = burstNanos();
+        while (true) {
+            long now = System.nanoTime();
+            long current = refilledAt.get();
+            long next = Math.max(current, now) + cost;
+            if (next - now > burstNanos) {
+                totalRequestsDenied.increment();
+                return 0;
+            }
+            if (refilledAt.compareAndSet(current, next)) {
+                totalRequestsAllowed.increment();
+                return cost;
+            }
         }
+    }
+
+    /**
+     * Give back tokens taken for a request that was not sent after all.
+     * Refunds the charge itself rather than recomputing it, since the rate
+     * may have changed in between.
+     * @param chargedNanos As returned by {@link #tryAcquireNanos(int)}
+     */
+    public void release(long chargedNanos) {
+        if (chargedNanos <= 0) return;
+        refilledAt.getAndAdd(-chargedNanos);
+        totalRequestsAllowed.decrement();
+    }
 
-        totalRequestsDenied++;
+    /**
+     * Predict how long until the given number of tokens is available
+     * @param permits Tokens wanted, capped at the bucket size
+     * @return Nanoseconds to wait, 0 if they are free now
+     */
+    public long nanosUntilNextToken(int permits) {
+        long now = System.nanoTime();
+        long next = Math.max(refilledAt.get(), now) + costOf(permits);
+        return Math.max(0, next - now - burstNanos());
+    }
+
+    /**
+     * @return Tokens currently available, rounded down
+     */
+    public int availableTokens() {
+        long now = System.nanoTime();
+        long owed = Math.max(refilledAt.get(), now) - now;
+        return (int) Math.max(0, (burstNanos() - owed) / nanosPerToken);
+    }
+
+    /**
+     * Change the sustained refill rate; the bucket size stays maxRequests
+     * @param requestsPerSecond New rate, values <= 0 restore the configured rate
+     * @return true if the rate actually changed by more than 5%
+     */
+    public boolean setRate(double requestsPerSecond) {
+        long updated = requestsPerSecond > 0
+            ? (long) (TimeUnit.SECONDS.toNanos(1) / requestsPerSecond)
+            : configuredNanosPerToken;
+        long previous = nanosPerToken;
+        if (Math.abs(updated - previous) * 20 < previous) return false;
+
+        nanosPerToken = Math.max(1, updated);
         debug.console(
-            "[RateLimiter] Request DENIED due to rate limit. Tokens depleted. Wait " +
-            ((lastCheckTime + periodMillis - now) / 1000.0) +
-            " seconds. (Total denied: " +
-            totalRequestsDenied +
-            ")"
+            "[RateLimiter] Refill rate now " +
+            String.format("%.2f", getRate()) +
+            " requests/s"
         );
-        return false;
+        return true;
+    }
+
+    /**
+     * @return Current sustained refill rate in requests per second
+     */
+    public double getRate() {
+        return (double) TimeUnit.SECONDS.toNanos(1) / nanosPerToken;
+    }
+
+    /**
+     * Hand out no tokens for the given time, e.g. after a 429 reply.
+     * Afterwards the bucket refills gradually from empty.
+     * @param nanos How long to pause
+     */
+    public void pauseFor(long nanos) {
+        if (nanos <= 0) return;
+        long perToken = nanosPerToken;
+        while (true) {
+            long now = System.nanoTime();
+            long current = refilledAt.get();
+            // First token becomes available exactly when the pause ends
+            long paused = now + nanos + burstNanos() - perToken;
+            if (paused <= current) return;
+            if (refilledAt.compareAndSet(current, paused)) return;
+        }
+    }
+
+    private long burstNanos() {
+        return nanosPerToken * maxRequests;
+    }
+
+    private long costOf(int permits) {
+        return Math.min(Math.max(1, permits), maxRequests) * nanosPerToken;
     }
 
     /**
@@ -93,17 +187,20 @@ public class RateLimiter {
             maxRequests +
             ", " +
             "Current=" +
-            tokens +
+            availableTokens() +
             ", " +
             "Allowed=" +
-            totalRequestsAllowed +
+            totalRequestsAllowed.sum() +
             ", " +
             "Denied=" +
-            totalRequestsDenied +
+            totalRequestsDenied.sum() +
             ", " +
             "Period=" +
             (periodMillis / 1000) +
-            "s"
+            "s, " +
+            "Rate=" +
+            String.format("%.2f", getRate()) +
+            "/s"
         );
     }
 }
@@ -6,10 +6,17 @@ import org.bukkit.scheduler.BukkitTask;
 import smartsort.SmartSortPlugin;
 
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToIntBiFunction;
 
 /**
  * Enhanced cache implementation with version tracking to prevent
  * applying outdated sorting results.
+ * <p>
+ * The version is a generation: a fingerprint of whatever produced the
+ * value, such as the prompt rules and model settings. An entry is only
+ * returned for the exact generation it was stored with, so changing those
+ * settings retires old entries while plain elapsed time does not.
  */
 public class VersionedCache<K, V> {
 
@@ -17,14 +24,28 @@ public class VersionedCache<K, V> {
     private final DebugLogger debug;
     private BukkitTask cleanupTask;
     private final SmartSortPlugin plugin;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder stale = new LongAdder();
 
-    public VersionedCache(int maxSize, DebugLogger debug) {
+    /**
+     * @param maxWeight Total weight of all entries, e.g. in bytes
+     * @param weigher Weight of one entry
+     */
+    public VersionedCache(
+        long maxWeight,
+        ToIntBiFunction<K, V> weigher,
+        DebugLogger debug
+    ) {
         this.debug = debug;
         this.plugin = SmartSortPlugin.get();
         
         // Use Caffeine's builder with expiration after write
         this.cache = Caffeine.newBuilder()
-            .maximumSize(maxSize)
+            .maximumWeight(maxWeight)
+            .weigher((K key, CacheEntry<V> entry) ->
+                weigher.applyAsInt(key, entry.getValue())
+            )
             .expireAfterWrite(6, TimeUnit.HOURS)
             .build();
             
@@ -56,7 +77,7 @@ public class VersionedCache<K, V> {
     }
 
     /**
-     * Store a value in the cache with a version timestamp
+     * Store a value in the cache with the generation it was computed for
      */
     public void put(K key, V value, long version) {
         cache.put(key, new CacheEntry<>(value, version));
@@ -69,15 +90,27 @@ public class VersionedCache<K, V> {
     }
 
     /**
-     * Get a value if its version is current (>= currentVersion)
+     * Store a value without logging, for bulk loading at startup. Does not
+     * replace a value that is already cached.
+     */
+    public void preload(K key, V value, long version) {
+        cache.asMap().putIfAbsent(key, new CacheEntry<>(value, version));
+    }
+
+    /**
+     * Get a value if it was stored for the current generation. Entries from
+     * another generation are dropped.
      */
     public V getIfCurrent(K key, long currentVersion) {
         CacheEntry<V> entry = cache.getIfPresent(key);
         if (entry != null) {
-            if (entry.getVersion() >= currentVersion) {
+            if (entry.getVersion() == currentVersion) {
+                hits.increment();
                 debug.console("[VersionedCache] Cache hit for key: " + key);
                 return entry.getValue();
             } else {
+                stale.increment();
+                cache.asMap().remove(key, entry);
                 debug.console(
                     "[VersionedCache] Cache entry outdated for key: " +
                     key +
@@ -89,6 +122,7 @@ public class VersionedCache<K, V> {
                 );
             }
         } else {
+            misses.increment();
             debug.console("[VersionedCache] Cache miss for key: " + key);
         }
         return null;
@@ -109,6 +143,33 @@ public class VersionedCache<K, V> {
         return cache.estimatedSize();
     }
     
+    /**
+     * Get statistics about cache usage
+     * @return String containing cache statistics
+     */
+    public String getStats() {
+        long hitCount = hits.sum();
+        long total = hitCount + misses.sum() + stale.sum();
+        return (
+            "Cache Stats: Hits=" +
+            hitCount +
+            ", Misses=" +
+            misses.sum() +
+            ", Stale=" +
+            stale.sum() +
+            ", Hit rate=" +
+            (total == 0 ? 0 : hitCount * 100 / total) +
+            "%, Size=" +
+            cache.estimatedSize() +
+            ", Weight=" +
+            cache
+                .policy()
+                .eviction()
+                .map(eviction -> eviction.weightedSize().orElse(0))
+                .orElse(0L)
+        );
+    }
+
     /**
      * Shutdown the cache
      */